@@ -0,0 +1,82 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.benchmark;
+
+import ninja.leaping.permissionsex.data.CalculatedSubject;
+import ninja.leaping.permissionsex.util.NodeTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Baking a user's data after it has been invalidated. Group inheritance stays cached between invocations,
+ * as it would when a single user's data changes on a running server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BakeBenchmark {
+    private static final int BAKED_USERS = 256;
+
+    @Param({"memory", "file"})
+    public String backend;
+    @Param({"1000"})
+    public int users;
+    @Param({"50"})
+    public int groups;
+    @Param({"1", "5"})
+    public int depth;
+    @Param({"0", "2", "5"})
+    public int contexts;
+    @Param({"20", "200"})
+    public int permissions;
+
+    private SyntheticDataset dataset;
+    private CalculatedSubject[] subjects;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataset = new SyntheticDataset(backend, users, groups, depth, contexts, permissions);
+        dataset.open();
+        subjects = new CalculatedSubject[Math.min(BAKED_USERS, users)];
+        for (int i = 0; i < subjects.length; ++i) {
+            subjects[i] = dataset.getManager().getCalculatedSubject("user", dataset.getUserIdentifier(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataset.close();
+    }
+
+    @Benchmark
+    public NodeTree bake() {
+        final CalculatedSubject subject = subjects[next++ % subjects.length];
+        subject.clearCache(null);
+        return subject.getPermissions(dataset.getActiveContexts());
+    }
+}
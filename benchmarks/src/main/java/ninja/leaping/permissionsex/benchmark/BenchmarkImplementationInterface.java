@@ -0,0 +1,81 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.benchmark;
+
+import com.google.common.base.Function;
+import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableSet;
+import ninja.leaping.permissionsex.ImplementationInterface;
+import ninja.leaping.permissionsex.util.command.CommandSpec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.util.Set;
+
+/**
+ * Implementation interface for benchmarks. Asynchronous tasks are run on the calling thread,
+ * so data stores have finished writing when setup completes.
+ */
+public class BenchmarkImplementationInterface implements ImplementationInterface {
+    private final File baseDirectory;
+    private final Logger logger = LoggerFactory.getLogger("PEXBenchmark");
+
+    public BenchmarkImplementationInterface(File baseDirectory) {
+        this.baseDirectory = baseDirectory;
+    }
+
+    @Override
+    public File getBaseDirectory() {
+        return baseDirectory;
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    @Override
+    public DataSource getDataSourceForURL(String url) {
+        return null;
+    }
+
+    @Override
+    public void executeAsyncronously(Runnable run) {
+        run.run();
+    }
+
+    @Override
+    public void registerCommand(CommandSpec command) {
+    }
+
+    @Override
+    public Set<CommandSpec> getImplementationCommands() {
+        return ImmutableSet.of();
+    }
+
+    @Override
+    public String getVersion() {
+        return "benchmark";
+    }
+
+    @Override
+    public Function<String, String> getNameTransformer(String type) {
+        return Functions.identity();
+    }
+}
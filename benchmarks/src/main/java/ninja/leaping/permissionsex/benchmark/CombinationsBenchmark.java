@@ -0,0 +1,72 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.benchmark;
+
+import com.google.common.collect.ImmutableSet;
+import ninja.leaping.permissionsex.util.Combinations;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enumerating every combination of the active contexts, compared to selecting the context sets a subject has data in.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CombinationsBenchmark {
+    @Param({"2", "4", "6"})
+    public int contexts;
+
+    private Combinations<String> combinations;
+    private List<Set<String>> candidates;
+
+    @Setup
+    public void setUp() {
+        final ImmutableSet.Builder<String> values = ImmutableSet.builder();
+        candidates = new ArrayList<>();
+        candidates.add(ImmutableSet.<String>of());
+        for (int i = 0; i < contexts; ++i) {
+            values.add("context" + i);
+            candidates.add(ImmutableSet.of("context" + i));
+        }
+        combinations = Combinations.of(values.build());
+    }
+
+    @Benchmark
+    public void iterateAll(Blackhole blackhole) {
+        for (Set<String> combination : combinations) {
+            blackhole.consume(combination);
+        }
+    }
+
+    @Benchmark
+    public List<Set<String>> matching() {
+        return combinations.matching(candidates);
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.benchmark;
+
+import ninja.leaping.permissionsex.util.NodeTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lookups of single permissions in a node tree, half of which are set and half of which fall back to a parent node.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NodeTreeBenchmark {
+    private static final int CHECKED_PERMISSIONS = 64;
+
+    @Param({"20", "200", "2000"})
+    public int permissions;
+    @Param({"true", "false"})
+    public boolean compiled;
+
+    private NodeTree tree;
+    private String[] checked;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        final Map<String, Integer> values = new HashMap<>();
+        for (int i = 0; i < permissions; ++i) {
+            values.put(SyntheticDataset.permission(i), i % 3 == 0 ? -1 : 1);
+        }
+        values.put("bench.category0", 1);
+        tree = NodeTree.of(values);
+        if (compiled) {
+            tree = tree.compile();
+        }
+
+        checked = new String[CHECKED_PERMISSIONS];
+        for (int i = 0; i < checked.length; ++i) {
+            checked[i] = i % 2 == 0 ? SyntheticDataset.permission(i * 7 % permissions) : SyntheticDataset.permission(permissions + i) + ".child";
+        }
+    }
+
+    @Benchmark
+    public int get() {
+        return tree.get(checked[next++ & (CHECKED_PERMISSIONS - 1)]);
+    }
+}
@@ -0,0 +1,109 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.benchmark;
+
+import ninja.leaping.permissionsex.data.CalculatedSubject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Permission checks against already baked data, as performed for every {@code hasPermission} call on a subject.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermissionCheckBenchmark {
+    private static final int CHECKED_PERMISSIONS = 64;
+
+    @Param({"memory", "file"})
+    public String backend;
+    @Param({"100"})
+    public int users;
+    @Param({"20"})
+    public int groups;
+    @Param({"4"})
+    public int depth;
+    @Param({"0", "5"})
+    public int contexts;
+    @Param({"200"})
+    public int permissions;
+
+    private SyntheticDataset dataset;
+    private CalculatedSubject subject;
+    private String[] checked;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        dataset = new SyntheticDataset(backend, users, groups, depth, contexts, permissions);
+        dataset.open();
+        subject = dataset.getManager().getCalculatedSubject("user", dataset.getUserIdentifier(0));
+        subject.bake(dataset.getActiveContexts());
+
+        checked = new String[CHECKED_PERMISSIONS];
+        for (int i = 0; i < checked.length; ++i) {
+            checked[i] = SyntheticDataset.permission(i * 31 % (2 * permissions)); // Half are not set
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataset.close();
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        String next(String[] checked) {
+            return checked[next++ & (CHECKED_PERMISSIONS - 1)];
+        }
+    }
+
+    @Benchmark
+    public int check(Cursor cursor) {
+        return subject.getPermission(dataset.getActiveContexts(), cursor.next(checked));
+    }
+
+    /**
+     * Contexts are usually recalculated for every check, so the context set is an equal but different instance each time.
+     */
+    @Benchmark
+    public int checkWithFreshContexts(Cursor cursor) {
+        final Set<Map.Entry<String, String>> contexts = new HashSet<>(dataset.getActiveContexts());
+        return subject.getPermission(contexts, cursor.next(checked));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int checkContended(Cursor cursor) {
+        return subject.getPermission(dataset.getActiveContexts(), cursor.next(checked));
+    }
+}
@@ -0,0 +1,207 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.benchmark;
+
+import com.google.common.base.Function;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
+import ninja.leaping.permissionsex.data.ImmutableOptionSubjectData;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * A generated permissions setup:
+ * <ul>
+ *     <li>{@code users} users, each inheriting from a single group</li>
+ *     <li>{@code groups} groups, arranged in inheritance chains of {@code depth} groups</li>
+ *     <li>{@code contexts} contexts, all of which are active when checking permissions</li>
+ *     <li>{@code permissions} permissions set on each subject, half globally and half in a single context</li>
+ * </ul>
+ */
+public class SyntheticDataset {
+    private static final String BACKEND_NAME = "benchmark";
+    private static final int CATEGORIES = 8;
+
+    private final String backend;
+    private final int users, groups, depth, contexts, permissions;
+    private final Set<Map.Entry<String, String>> activeContexts;
+    private File baseDirectory;
+    private PermissionsEx manager;
+
+    /**
+     * Create a new dataset description. No data is generated until {@link #open()} is called.
+     *
+     * @param backend The type of data store to use. Either {@code memory} or {@code file}
+     * @param users The number of users
+     * @param groups The number of groups
+     * @param depth The maximum length of a group inheritance chain
+     * @param contexts The number of active contexts
+     * @param permissions The number of permissions set on each subject
+     */
+    public SyntheticDataset(String backend, int users, int groups, int depth, int contexts, int permissions) {
+        Preconditions.checkArgument(groups >= depth && depth > 0, "There must be at least as many groups as the inheritance depth");
+        this.backend = backend;
+        this.users = users;
+        this.groups = groups;
+        this.depth = depth;
+        this.contexts = contexts;
+        this.permissions = permissions;
+
+        final ImmutableSet.Builder<Map.Entry<String, String>> activeContexts = ImmutableSet.builder();
+        for (int i = 0; i < contexts; ++i) {
+            activeContexts.add(context(i));
+        }
+        this.activeContexts = activeContexts.build();
+    }
+
+    private static Map.Entry<String, String> context(int index) {
+        return Maps.immutableEntry("context" + index, "value");
+    }
+
+    /**
+     * Get the name of a permission. Permissions with the same index are set on every subject, so children override their parents.
+     *
+     * @param index The permission index
+     * @return The permission name
+     */
+    public static String permission(int index) {
+        return "bench.category" + (index % CATEGORIES) + ".node" + index;
+    }
+
+    public String getUserIdentifier(int index) {
+        return UUID.nameUUIDFromBytes(("user" + index).getBytes()).toString();
+    }
+
+    public String getGroupIdentifier(int index) {
+        return "group" + index;
+    }
+
+    public int getUserCount() {
+        return users;
+    }
+
+    public int getPermissionCount() {
+        return permissions;
+    }
+
+    public Set<Map.Entry<String, String>> getActiveContexts() {
+        return activeContexts;
+    }
+
+    public PermissionsEx getManager() {
+        return manager;
+    }
+
+    private Set<Map.Entry<String, String>> contextsFor(int permission) {
+        if (contexts == 0 || permission % 2 == 0) {
+            return ImmutableSet.of();
+        }
+        return ImmutableSet.of(context((permission / 2) % contexts));
+    }
+
+    private ImmutableOptionSubjectData populate(ImmutableOptionSubjectData data, int seed) {
+        for (int i = 0; i < permissions; ++i) {
+            data = data.setPermission(contextsFor(i), permission(i), (i + seed) % 3 == 0 ? -1 : 1);
+        }
+        return data;
+    }
+
+    private void generate(DataStore store) {
+        final int chains = (groups + depth - 1) / depth;
+        for (int i = 0; i < groups; ++i) {
+            ImmutableOptionSubjectData data = populate(store.getData("group", getGroupIdentifier(i), null), i);
+            if ((i + 1) % depth != 0 && i + 1 < groups) {
+                data = data.addParent(ImmutableSet.<Map.Entry<String, String>>of(), "group", getGroupIdentifier(i + 1));
+            }
+            store.setData("group", getGroupIdentifier(i), data);
+        }
+        for (int i = 0; i < users; ++i) {
+            ImmutableOptionSubjectData data = populate(store.getData("user", getUserIdentifier(i), null), i);
+            data = data.addParent(ImmutableSet.<Map.Entry<String, String>>of(), "group", getGroupIdentifier((i % chains) * depth));
+            store.setData("user", getUserIdentifier(i), data);
+        }
+    }
+
+    private PermissionsEx createManager() throws Exception {
+        final ConfigurationNode node = SimpleConfigurationNode.root();
+        node.getNode("default-backend").setValue(BACKEND_NAME);
+        node.getNode("backends", BACKEND_NAME, "type").setValue(backend);
+        if (backend.equals("file")) {
+            node.getNode("backends", BACKEND_NAME, "file").setValue("permissions.json");
+        }
+        node.getNode("calculated-subject-cache-size").setValue(Math.max(512, users + groups));
+        node.getNode("subject-cache-size").setValue(Math.max(512, users + groups));
+        final PermissionsExConfiguration config = PermissionsExConfiguration.MAPPER.bindToNew().populate(node);
+        config.validate();
+        return new PermissionsEx(config, new BenchmarkImplementationInterface(baseDirectory));
+    }
+
+    /**
+     * Generate the data set. File-backed data is written, then loaded again by a fresh manager,
+     * so the file store's loading path is used.
+     *
+     * @throws Exception if the data could not be generated
+     */
+    public void open() throws Exception {
+        baseDirectory = Files.createTempDir();
+        manager = createManager();
+        manager.getConfig().getDefaultDataStore().performBulkOperation(new Function<DataStore, Void>() {
+            @Nullable
+            @Override
+            public Void apply(DataStore input) {
+                generate(input);
+                return null;
+            }
+        }).get();
+        if (backend.equals("file")) {
+            manager.close();
+            manager = createManager();
+        }
+    }
+
+    public void close() {
+        if (manager != null) {
+            manager.close();
+            manager = null;
+        }
+        if (baseDirectory != null) {
+            delete(baseDirectory);
+            baseDirectory = null;
+        }
+    }
+
+    private static void delete(File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -21,6 +21,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -37,8 +38,13 @@ import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
 import ninja.leaping.permissionsex.command.PermissionsExCommands;
 import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
 import ninja.leaping.permissionsex.data.CalculatedSubject;
+import ninja.leaping.permissionsex.data.BakeMetrics;
+import ninja.leaping.permissionsex.data.BakedDataPool;
+import ninja.leaping.permissionsex.data.DependencyIndex;
 import ninja.leaping.permissionsex.data.ImmutableOptionSubjectData;
 import ninja.leaping.permissionsex.data.SubjectCache;
+import ninja.leaping.permissionsex.data.SubjectWarmer;
+import ninja.leaping.permissionsex.data.TraceBuffer;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
 import ninja.leaping.permissionsex.util.PEXProfileCache;
 import ninja.leaping.permissionsex.util.Translatable;
@@ -65,16 +71,16 @@ import static ninja.leaping.permissionsex.util.Translations.*;
 
 public class PermissionsEx implements ImplementationInterface {
     private static final Map.Entry<String, String> DEFAULT_IDENTIFIER = Maps.immutableEntry("system", "default");
+    private static final int TRACE_CAPACITY = 1024;
     private final PermissionsExConfiguration config;
     private final ImplementationInterface impl;
     private DataStore activeDataStore;
     private final ConcurrentMap<String, SubjectCache> subjectCaches = new ConcurrentHashMap<>(), transientSubjectCaches = new ConcurrentHashMap<>();
-    private final LoadingCache<Map.Entry<String, String>, CalculatedSubject> calculatedSubjects = CacheBuilder.newBuilder().maximumSize(512).build(new CacheLoader<Map.Entry<String, String>, CalculatedSubject>() {
-        @Override
-        public CalculatedSubject load(Map.Entry<String, String> key) throws Exception {
-            return new CalculatedSubject(key, PermissionsEx.this);
-        }
-    });
+    private final LoadingCache<Map.Entry<String, String>, CalculatedSubject> calculatedSubjects;
+    private final DependencyIndex dependencies = new DependencyIndex();
+    private final BakedDataPool bakedDataPool = new BakedDataPool();
+    private final BakeMetrics bakeMetrics = new BakeMetrics();
+    private final TraceBuffer traces = new TraceBuffer(TRACE_CAPACITY);
     private final MemoryDataStore transientData;
     private ProfileService uuidService;
     private volatile boolean debug;
@@ -86,18 +92,36 @@ public class PermissionsEx implements ImplementationInterface {
     public PermissionsEx(final PermissionsExConfiguration config, ImplementationInterface impl) throws PermissionsLoadingException {
         this.config = config;
         this.impl = impl;
+        this.calculatedSubjects = CacheBuilder.newBuilder()
+                .maximumSize(config.getCalculatedSubjectCacheSize())
+                .recordStats()
+                .build(new CacheLoader<Map.Entry<String, String>, CalculatedSubject>() {
+                    @Override
+                    public CalculatedSubject load(Map.Entry<String, String> key) throws Exception {
+                        return new CalculatedSubject(key, PermissionsEx.this);
+                    }
+                });
         this.debug = config.isDebugEnabled();
         this.uuidService = HttpRepositoryService.forMinecraft();
         this.transientData = new MemoryDataStore();
         this.transientData.initialize(this);
         this.activeDataStore = config.getDefaultDataStore();
         this.activeDataStore.initialize(this);
-        getSubjects("group").cacheAll();
         convertUuids();
 
         // Now that initialization is complete
         uuidService = new CacheForwardingService(uuidService, new PEXProfileCache(getSubjects("user")));
         registerCommand(PermissionsExCommands.createRootCommand(this));
+        executeAsyncronously(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    warmUpGroups(ImmutableSet.<Set<Map.Entry<String, String>>>of());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
     }
 
     private void convertUuids() {
@@ -194,7 +218,7 @@ public class PermissionsEx implements ImplementationInterface {
         Preconditions.checkNotNull(type, "type");
         SubjectCache cache = subjectCaches.get(type);
         if (cache == null) {
-            cache = new SubjectCache(type, activeDataStore);
+            cache = new SubjectCache(type, activeDataStore, config.getSubjectCacheSize());
             SubjectCache newCache = subjectCaches.putIfAbsent(type, cache);
             if (newCache != null) {
                 cache = newCache;
@@ -207,7 +231,7 @@ public class PermissionsEx implements ImplementationInterface {
         Preconditions.checkNotNull(type, "type");
         SubjectCache cache = transientSubjectCaches.get(type);
         if (cache == null) {
-            cache = new SubjectCache(type, transientData);
+            cache = new SubjectCache(type, transientData, config.getSubjectCacheSize());
             SubjectCache newCache = transientSubjectCaches.putIfAbsent(type, cache);
             if (newCache != null) {
                 cache = newCache;
@@ -225,7 +249,9 @@ public class PermissionsEx implements ImplementationInterface {
         if (cache != null) {
             cache.invalidate(identifier);
         }
-        calculatedSubjects.invalidate(Maps.immutableEntry(type, identifier));
+        final Map.Entry<String, String> key = Maps.immutableEntry(type, identifier);
+        calculatedSubjects.invalidate(key);
+        dependencies.invalidate(key); // Listeners for this subject have been removed, so dependents must re-bake to register again
     }
 
     /**
@@ -264,10 +290,43 @@ public class PermissionsEx implements ImplementationInterface {
         }
     }
 
+    /**
+     * Load and bake the data of every group in parallel, in the global context, the context sets groups have data in,
+     * and the given context sets. This is started asynchronously when this instance is created.
+     *
+     * @param contexts Additional context sets to bake in, such as those of users currently online
+     * @return The result of the warm-up
+     * @throws InterruptedException if interrupted while waiting for bakes to complete
+     */
+    public SubjectWarmer.Result warmUpGroups(Set<? extends Set<Map.Entry<String, String>>> contexts) throws InterruptedException {
+        return new SubjectWarmer(this, config.getWarmUpThreads()).warmUpGroups(contexts);
+    }
+
+    /**
+     * Load and bake the data of many subjects in parallel, using the configured number of warm-up threads.
+     *
+     * @param description A plural description of the subjects, used in log messages
+     * @param subjects The subjects to bake, mapped to the contexts to bake each in
+     * @return The result of the warm-up
+     * @throws InterruptedException if interrupted while waiting for bakes to complete
+     */
+    public SubjectWarmer.Result warmUp(String description, Map<Map.Entry<String, String>, Set<Map.Entry<String, String>>> subjects) throws InterruptedException {
+        return new SubjectWarmer(this, config.getWarmUpThreads()).warmUp(description, subjects);
+    }
+
     public Set<String> getRegisteredSubjectTypes() {
         return this.activeDataStore.getRegisteredTypes();
     }
 
+    /**
+     * Get the buffer recording subject checks while debug mode is enabled.
+     *
+     * @return The trace buffer
+     */
+    public TraceBuffer getTraceBuffer() {
+        return traces;
+    }
+
     public void setDebugMode(boolean debug) {
         this.debug = debug;
     }
@@ -342,6 +401,68 @@ public class PermissionsEx implements ImplementationInterface {
         }
     }
 
+    /**
+     * Get the index tracking which baked data depends on each subject.
+     *
+     * @return The dependency index
+     */
+    public DependencyIndex getDependencyIndex() {
+        return dependencies;
+    }
+
+    /**
+     * Get the pool of baked data shared between subjects with identical merged data.
+     *
+     * @return The baked data pool
+     */
+    public BakedDataPool getBakedDataPool() {
+        return bakedDataPool;
+    }
+
+    /**
+     * Get statistics for the cache of calculated subjects, including evictions.
+     *
+     * @return The calculated subject cache statistics
+     */
+    public CacheStats getCalculatedSubjectCacheStats() {
+        return calculatedSubjects.stats();
+    }
+
+    /**
+     * Get the combined statistics of the caches of loaded subject data, both persistent and transient, of every type.
+     *
+     * @return The subject data cache statistics
+     */
+    public CacheStats getSubjectCacheStats() {
+        CacheStats ret = new CacheStats(0, 0, 0, 0, 0, 0);
+        for (SubjectCache cache : Iterables.concat(subjectCaches.values(), transientSubjectCaches.values())) {
+            ret = ret.plus(cache.getStats());
+        }
+        return ret;
+    }
+
+    /**
+     * Get the combined statistics of the baked data caches of every currently calculated subject.
+     *
+     * @return The baked data cache statistics
+     */
+    public CacheStats getBakedDataCacheStats() {
+        CacheStats ret = new CacheStats(0, 0, 0, 0, 0, 0);
+        for (CalculatedSubject subject : calculatedSubjects.asMap().values()) {
+            ret = ret.plus(subject.getBakeCacheStats());
+        }
+        return ret;
+    }
+
+    /**
+     * Get the metrics recorded for every bake of calculated subject data.
+     *
+     * @return The bake metrics
+     */
+    public BakeMetrics getBakeMetrics() {
+        return bakeMetrics;
+    }
+
     public Iterable<? extends CalculatedSubject> getActiveCalculatedSubjects() {
         return Collections.unmodifiableCollection(calculatedSubjects.asMap().values());
     }
@@ -17,6 +17,7 @@
 package ninja.leaping.permissionsex.backend;
 
 import com.google.common.base.Optional;
+import ninja.leaping.permissionsex.backend.file.DirectoryDataStore;
 import ninja.leaping.permissionsex.backend.file.FileDataStore;
 import ninja.leaping.permissionsex.backend.memory.MemoryDataStore;
 
@@ -28,6 +29,7 @@ public class DataStoreFactories {
 
     static {
         register("file", FileDataStore.FACTORY);
+        register("directory", DirectoryDataStore.FACTORY);
         register("memory", MemoryDataStore.FACTORY);
     }
 
@@ -0,0 +1,163 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend;
+
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces requests to save a data store whose contents are written out as a whole. Rather than saving once per
+ * change, a save is delayed until no further request has arrived for the debounce window, or until the oldest
+ * unsaved request has waited for the maximum delay. Every request made before a save starts is completed by that save.
+ *
+ * Saves run on a single thread owned by the scheduler, so at most one save is ever in progress. Requests arriving during
+ * a save are covered by the next one.
+ */
+public class SaveScheduler {
+    private final Callable<?> saver;
+    private final long debounceNanos, maxDelayNanos;
+    private final ScheduledExecutorService executor;
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+    private final Object lock = new Object();
+    // All guarded by lock
+    private SettableFuture<Void> pending;
+    private long firstRequest, lastRequest;
+    private boolean immediate, closed;
+    private ScheduledFuture<?> scheduled;
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param name The name of the thread performing saves
+     * @param saver The action writing out the data store's contents
+     * @param debounce The time to wait for further requests after the latest one
+     * @param maxDelay The longest time a request may wait before it is saved
+     * @param unit The unit of both delays
+     */
+    public SaveScheduler(String name, Callable<?> saver, long debounce, long maxDelay, TimeUnit unit) {
+        Preconditions.checkNotNull(saver, "saver");
+        Preconditions.checkArgument(debounce >= 0, "debounce must not be negative");
+        Preconditions.checkArgument(maxDelay >= 0, "maxDelay must not be negative");
+        this.saver = saver;
+        this.debounceNanos = unit.toNanos(debounce);
+        this.maxDelayNanos = unit.toNanos(maxDelay);
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat(name)
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Request that the data store be saved once the current burst of changes is over.
+     *
+     * @return A future completing once a save covering this request has finished
+     */
+    public ListenableFuture<Void> requestSave() {
+        return request(false);
+    }
+
+    /**
+     * Request that the data store be saved as soon as possible, along with any other pending requests.
+     *
+     * @return A future completing once a save covering this request has finished
+     */
+    public ListenableFuture<Void> saveNow() {
+        return request(true);
+    }
+
+    private ListenableFuture<Void> request(boolean now) {
+        synchronized (lock) {
+            if (closed) {
+                return Futures.immediateFailedFuture(new IllegalStateException("Save scheduler has been closed"));
+            }
+            final long time = System.nanoTime();
+            if (pending == null) {
+                pending = SettableFuture.create();
+                firstRequest = time;
+            }
+            lastRequest = time;
+            immediate |= now;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+            }
+            scheduled = executor.schedule(flushTask, getDelay(time), TimeUnit.NANOSECONDS);
+            return pending;
+        }
+    }
+
+    private long getDelay(long time) {
+        if (immediate) {
+            return 0;
+        }
+        return Math.max(0, Math.min(lastRequest + debounceNanos, firstRequest + maxDelayNanos) - time);
+    }
+
+    private void flush() {
+        final SettableFuture<Void> saving;
+        synchronized (lock) {
+            if (pending == null) {
+                return;
+            }
+            saving = pending;
+            pending = null;
+            immediate = false;
+            scheduled = null;
+        }
+
+        try {
+            saver.call();
+            saving.set(null);
+        } catch (Throwable t) {
+            saving.setException(t);
+        }
+    }
+
+    /**
+     * Save any pending requests, then stop accepting new ones. Blocks until the final save has finished.
+     *
+     * @throws InterruptedException if interrupted while waiting for the final save
+     */
+    public void close() throws InterruptedException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (scheduled != null) {
+                scheduled.cancel(false);
+                scheduled = null;
+            }
+            executor.execute(flushTask);
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+}
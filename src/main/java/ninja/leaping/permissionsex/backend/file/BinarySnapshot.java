@@ -0,0 +1,437 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.file;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.data.ContextSet;
+import ninja.leaping.permissionsex.data.ImmutableOptionSubjectData;
+
+import javax.annotation.Nullable;
+import java.io.BufferedOutputStream;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**
+ * A compact binary copy of every subject in a permissions file. The snapshot is memory-mapped, and each subject is
+ * decoded straight into {@link FileOptionSubjectData} when first requested, without parsing JSON or going through the
+ * object mapper.
+ *
+ * A snapshot records the checksum of the permissions file it was written from, and is only used while that checksum
+ * still matches. The permissions file remains the source of truth, and may be edited by hand at any time.
+ *
+ * Every string is stored once in a string table, and every distinct context set once in a context table. Subjects
+ * refer to both by index, and all counts, indices and values are written as variable-length integers.
+ */
+final class BinarySnapshot {
+    private static final int MAGIC = 0x50455853; // PEXS
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final String[] strings;
+    private final ContextSet[] contextSets;
+    /**
+     * Section name -> subject identifier -> offset of the subject's data within {@link #data}
+     */
+    private final Map<String, Map<String, Integer>> sections;
+    private final ByteBuffer data;
+
+    private BinarySnapshot(ByteBuffer body) {
+        this.strings = new String[readCount(body)];
+        for (int i = 0; i < strings.length; ++i) {
+            final byte[] bytes = new byte[readCount(body)];
+            body.get(bytes);
+            strings[i] = new String(bytes, UTF8);
+        }
+
+        this.contextSets = new ContextSet[readCount(body)];
+        for (int i = 0; i < contextSets.length; ++i) {
+            final int size = readCount(body);
+            final Set<Map.Entry<String, String>> contexts = new HashSet<>(size);
+            for (int j = 0; j < size; ++j) {
+                contexts.add(Maps.immutableEntry(readString(body), readString(body)));
+            }
+            contextSets[i] = ContextSet.of(contexts);
+        }
+
+        this.sections = new LinkedHashMap<>();
+        for (int i = readCount(body); i > 0; --i) {
+            final String section = readString(body);
+            final int size = readCount(body);
+            final Map<String, Integer> subjects = new LinkedHashMap<>(size);
+            for (int j = 0; j < size; ++j) {
+                subjects.put(readString(body), readCount(body));
+            }
+            sections.put(section, subjects);
+        }
+        this.data = body.slice();
+    }
+
+    /**
+     * Calculate the checksum of a permissions file that a snapshot must match.
+     *
+     * @param file The permissions file
+     * @return The checksum of the file's contents
+     * @throws IOException if the file could not be read
+     */
+    static long checksum(File file) throws IOException {
+        final CRC32 crc = new CRC32();
+        try (InputStream in = new FileInputStream(file)) {
+            final byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * Check whether a snapshot was written from the current contents of its permissions file, reading only its header.
+     * Unlike {@link #open(File, long)}, this does not map the file, so it can still be replaced afterwards on
+     * platforms that do not allow replacing mapped files. The body is not verified.
+     *
+     * @param file The snapshot file
+     * @param sourceChecksum The {@link #checksum(File) checksum} of the permissions file
+     * @return Whether the snapshot is present and matches the permissions file
+     * @throws IOException if the snapshot could not be read
+     */
+    static boolean isCurrent(File file, long sourceChecksum) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), HEADER_SIZE))) {
+            return in.readInt() == MAGIC && in.readInt() == VERSION && in.readLong() == sourceChecksum;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Open a snapshot, if it is present and was written from the current contents of its permissions file.
+     *
+     * @param file The snapshot file
+     * @param sourceChecksum The {@link #checksum(File) checksum} of the permissions file
+     * @return The snapshot, or null if there is no usable snapshot for this version of the permissions file
+     * @throws IOException if the snapshot could not be read or is corrupt
+     */
+    @Nullable
+    static BinarySnapshot open(File file, long sourceChecksum) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        final ByteBuffer buffer;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            if (in.length() > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to be a permissions snapshot");
+            }
+            // The mapping stays valid once the file is closed
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        }
+        if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC) {
+            throw new IOException(file + " is not a permissions snapshot");
+        }
+        if (buffer.getInt() != VERSION || buffer.getLong() != sourceChecksum) {
+            return null;
+        }
+        final int bodyChecksum = buffer.getInt();
+        final ByteBuffer body = buffer.slice();
+        if ((int) crc(body.duplicate()) != bodyChecksum) {
+            throw new IOException(file + " is corrupt");
+        }
+        try {
+            return new BinarySnapshot(body);
+        } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+            throw new IOException(file + " is corrupt", e);
+        }
+    }
+
+    private static long crc(ByteBuffer buffer) {
+        final CRC32 crc = new CRC32();
+        final byte[] chunk = new byte[8192];
+        while (buffer.hasRemaining()) {
+            final int length = Math.min(chunk.length, buffer.remaining());
+            buffer.get(chunk, 0, length);
+            crc.update(chunk, 0, length);
+        }
+        return crc.getValue();
+    }
+
+    Set<String> getSections() {
+        return Collections.unmodifiableSet(sections.keySet());
+    }
+
+    Set<String> getIdentifiers(String section) {
+        final Map<String, Integer> subjects = sections.get(section);
+        return subjects == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(subjects.keySet());
+    }
+
+    boolean contains(String section, String identifier) {
+        return getIdentifiers(section).contains(identifier);
+    }
+
+    /**
+     * Decode the data of a single subject.
+     *
+     * @param section The section containing the subject
+     * @param identifier The identifier of the subject
+     * @return The subject's data, or null if the subject is not present
+     */
+    @Nullable
+    FileOptionSubjectData get(String section, String identifier) {
+        final Map<String, Integer> subjects = sections.get(section);
+        final Integer offset = subjects == null ? null : subjects.get(identifier);
+        if (offset == null) {
+            return null;
+        }
+        final ByteBuffer in = data.duplicate();
+        in.position(offset);
+        final FileOptionSubjectData.Builder ret = new FileOptionSubjectData.Builder();
+        for (int i = readCount(in); i > 0; --i) {
+            final ContextSet contexts = contextSets[readCount(in)];
+
+            Map<String, Integer> permissions = null;
+            int size = readCount(in);
+            if (size > 0) {
+                final ImmutableMap.Builder<String, Integer> build = ImmutableMap.builder();
+                for (int j = 0; j < size; ++j) {
+                    build.put(readString(in), (int) unzigzag(readVarint(in)));
+                }
+                permissions = build.build();
+            }
+
+            Map<String, String> options = null;
+            size = readCount(in);
+            if (size > 0) {
+                final ImmutableMap.Builder<String, String> build = ImmutableMap.builder();
+                for (int j = 0; j < size; ++j) {
+                    build.put(readString(in), readString(in));
+                }
+                options = build.build();
+            }
+
+            List<String> parents = null;
+            size = readCount(in);
+            if (size > 0) {
+                final ImmutableList.Builder<String> build = ImmutableList.builder();
+                for (int j = 0; j < size; ++j) {
+                    build.add(readString(in));
+                }
+                parents = build.build();
+            }
+
+            final long defaultValue = readVarint(in); // 0 when unset, otherwise one more than the encoded value
+            ret.addSegment(contexts, permissions, options, parents, defaultValue == 0 ? null : (int) unzigzag(defaultValue - 1));
+        }
+        return ret.build();
+    }
+
+    private String readString(ByteBuffer in) {
+        return strings[readCount(in)];
+    }
+
+    private static int readCount(ByteBuffer in) {
+        final long value = readVarint(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Count out of range: " + value);
+        }
+        return (int) value;
+    }
+
+    private static long readVarint(ByteBuffer in) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable-length integer");
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Map signed values to unsigned ones, so small negative values stay short as variable-length integers.
+     */
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Collects subjects and writes them out as a snapshot. Subjects are encoded as they are added, so only the
+     * encoded form is kept in memory.
+     */
+    static final class Writer {
+        private final Map<String, Integer> strings = new LinkedHashMap<>();
+        private final Map<ContextSet, Integer> contextSets = new LinkedHashMap<>();
+        private final Map<String, Map<String, Integer>> sections = new LinkedHashMap<>();
+        private final ByteArrayOutputStream subjects = new ByteArrayOutputStream();
+
+        private int string(String value) {
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.put(value, index);
+            }
+            return index;
+        }
+
+        private int contextSet(Set<Map.Entry<String, String>> contexts) {
+            final ContextSet key = ContextSet.of(contexts);
+            Integer index = contextSets.get(key);
+            if (index == null) {
+                for (Map.Entry<String, String> context : key) {
+                    string(context.getKey());
+                    string(context.getValue());
+                }
+                index = contextSets.size();
+                contextSets.put(key, index);
+            }
+            return index;
+        }
+
+        /**
+         * Add a subject to the snapshot.
+         *
+         * @param section The section containing the subject
+         * @param identifier The identifier of the subject
+         * @param data The subject's data
+         */
+        void add(String section, String identifier, ImmutableOptionSubjectData data) {
+            Map<String, Integer> sectionSubjects = sections.get(section);
+            if (sectionSubjects == null) {
+                string(section);
+                sectionSubjects = new LinkedHashMap<>();
+                sections.put(section, sectionSubjects);
+            }
+            string(identifier);
+            sectionSubjects.put(identifier, subjects.size());
+
+            final List<Set<Map.Entry<String, String>>> activeContexts = ImmutableList.copyOf(data.getActiveContexts());
+            final Map<Set<Map.Entry<String, String>>, Integer> defaultValues = data.getAllDefaultValues();
+            writeVarint(subjects, activeContexts.size());
+            for (Set<Map.Entry<String, String>> contexts : activeContexts) {
+                writeVarint(subjects, contextSet(contexts));
+
+                final Map<String, Integer> permissions = data.getPermissions(contexts);
+                writeVarint(subjects, permissions.size());
+                for (Map.Entry<String, Integer> permission : permissions.entrySet()) {
+                    writeVarint(subjects, string(permission.getKey()));
+                    writeVarint(subjects, zigzag(permission.getValue()));
+                }
+
+                final Map<String, String> options = data.getOptions(contexts);
+                writeVarint(subjects, options.size());
+                for (Map.Entry<String, String> option : options.entrySet()) {
+                    writeVarint(subjects, string(option.getKey()));
+                    writeVarint(subjects, string(option.getValue()));
+                }
+
+                final List<Map.Entry<String, String>> parents = data.getParents(contexts);
+                writeVarint(subjects, parents.size());
+                for (Map.Entry<String, String> parent : parents) {
+                    writeVarint(subjects, string(parent.getKey() + ":" + parent.getValue()));
+                }
+
+                final Integer defaultValue = defaultValues.get(contexts);
+                writeVarint(subjects, defaultValue == null ? 0 : zigzag(defaultValue) + 1);
+            }
+        }
+
+        /**
+         * Write every subject added so far.
+         *
+         * @param target The file to write the snapshot to
+         * @param sourceChecksum The {@link #checksum(File) checksum} of the permissions file containing these subjects
+         * @throws IOException if the snapshot could not be written
+         */
+        void write(File target, long sourceChecksum) throws IOException {
+            final ByteArrayOutputStream body = new ByteArrayOutputStream();
+            writeVarint(body, strings.size());
+            for (String value : strings.keySet()) {
+                final byte[] bytes = value.getBytes(UTF8);
+                writeVarint(body, bytes.length);
+                body.write(bytes, 0, bytes.length);
+            }
+
+            writeVarint(body, contextSets.size());
+            for (ContextSet contexts : contextSets.keySet()) {
+                writeVarint(body, contexts.size());
+                for (Map.Entry<String, String> context : contexts) {
+                    writeVarint(body, string(context.getKey()));
+                    writeVarint(body, string(context.getValue()));
+                }
+            }
+
+            writeVarint(body, sections.size());
+            for (Map.Entry<String, Map<String, Integer>> section : sections.entrySet()) {
+                writeVarint(body, string(section.getKey()));
+                writeVarint(body, section.getValue().size());
+                for (Map.Entry<String, Integer> subject : section.getValue().entrySet()) {
+                    writeVarint(body, string(subject.getKey()));
+                    writeVarint(body, subject.getValue());
+                }
+            }
+            subjects.writeTo(body);
+
+            final byte[] bodyBytes = body.toByteArray();
+            final CRC32 crc = new CRC32();
+            crc.update(bodyBytes, 0, bodyBytes.length);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(target)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(sourceChecksum);
+                out.writeInt((int) crc.getValue());
+                out.write(bodyBytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,340 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.file;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.json.simple.JSONObject;
+import org.json.simple.parser.JSONParser;
+import org.json.simple.parser.ParseException;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * An append-only record of the changes made to a {@link FileDataStore} since its permissions file was last written.
+ * Each line holds the complete new data of a single subject as JSON, so replaying every entry in order over the
+ * permissions file restores all changes, no matter how many of them the file already contains.
+ *
+ * Before the permissions file is rewritten, the entries written so far are moved aside into a compacting journal,
+ * which is only deleted once the new permissions file is in place. Entries appended meanwhile stay in the journal.
+ *
+ * Entries are written and synced to disk on a thread owned by the journal, so appending never blocks on the disk.
+ * Entries appended while a sync is in progress are written out together and share the next sync.
+ */
+final class ChangeJournal {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String KEY_TYPE = "type", KEY_IDENTIFIER = "identifier", KEY_DATA = "data";
+    private final File file, compactingFile;
+    private final Runnable writeTask = new Runnable() {
+        @Override
+        public void run() {
+            writePending();
+        }
+    };
+    private ExecutorService executor;
+    // Guarded by this, and only used on the executor's thread once open
+    private FileOutputStream out;
+    private Writer writer;
+    private final Object pendingLock = new Object();
+    // Guarded by pendingLock
+    private List<PendingEntry> pending = new ArrayList<>();
+    private int size;
+
+    ChangeJournal(File file) {
+        this.file = file;
+        this.compactingFile = new File(file.getPath() + ".compacting");
+    }
+
+    /**
+     * Read every entry left over from a previous session, oldest first. Lines that cannot be parsed, such as a final
+     * entry torn by a crash, are skipped.
+     *
+     * @return The result of reading the journal
+     * @throws IOException if the journal could not be read
+     */
+    synchronized Replay replay() throws IOException {
+        final Replay ret = new Replay();
+        read(compactingFile, ret);
+        read(file, ret);
+        return ret;
+    }
+
+    private static void read(File file, Replay replay) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        final JSONParser parser = new JSONParser();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    final Map<?, ?> entry = (Map<?, ?>) parser.parse(line);
+                    replay.entries.add(new Entry((String) entry.get(KEY_TYPE), (String) entry.get(KEY_IDENTIFIER), normalize(entry.get(KEY_DATA))));
+                } catch (ParseException | ClassCastException e) {
+                    replay.skipped++;
+                }
+            }
+        }
+    }
+
+    /**
+     * JSON numbers are parsed as longs, but subject data stores integers.
+     */
+    private static Object normalize(Object value) {
+        if (value instanceof Map) {
+            final Map<Object, Object> ret = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> ent : ((Map<?, ?>) value).entrySet()) {
+                ret.put(ent.getKey(), normalize(ent.getValue()));
+            }
+            return ret;
+        } else if (value instanceof List) {
+            final List<Object> ret = new ArrayList<>();
+            for (Object child : (List<?>) value) {
+                ret.add(normalize(child));
+            }
+            return ret;
+        } else if (value instanceof Long && (Long) value == ((Long) value).intValue()) {
+            return ((Long) value).intValue();
+        }
+        return value;
+    }
+
+    /**
+     * Open the journal for appending, after any entries from a previous session have been replayed.
+     *
+     * @throws IOException if the journal could not be opened
+     */
+    synchronized void open() throws IOException {
+        out = new FileOutputStream(file, true);
+        writer = new BufferedWriter(new OutputStreamWriter(out, UTF8));
+        executor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("PermissionsEx journal " + file.getName())
+                .setDaemon(true)
+                .build());
+    }
+
+    /**
+     * Record the new data of a subject. The entry is written and synced to disk on the journal's thread, in the order
+     * entries were appended.
+     *
+     * @param type The type of the subject
+     * @param identifier The identifier of the subject
+     * @param data The subject's serialized data, or null if the subject was removed. This must not be modified afterwards
+     * @return A future completing once the change survives a crash, or failing if the entry could not be written
+     */
+    @SuppressWarnings("unchecked")
+    ListenableFuture<Void> append(String type, String identifier, @Nullable Object data) {
+        final JSONObject entry = new JSONObject();
+        entry.put(KEY_TYPE, type);
+        entry.put(KEY_IDENTIFIER, identifier);
+        entry.put(KEY_DATA, data);
+        final PendingEntry ret = new PendingEntry(entry);
+        synchronized (pendingLock) {
+            pending.add(ret);
+            ++size;
+        }
+        try {
+            executor.execute(writeTask);
+        } catch (RejectedExecutionException e) {
+            ret.written.setException(new IOException("Journal " + file + " has been closed", e));
+        }
+        return ret.written;
+    }
+
+    /**
+     * Write out every entry appended so far with a single sync, then complete their futures.
+     */
+    private void writePending() {
+        final List<PendingEntry> entries;
+        synchronized (pendingLock) {
+            if (pending.isEmpty()) { // Already written along with an earlier entry
+                return;
+            }
+            entries = pending;
+            pending = new ArrayList<>();
+        }
+        try {
+            synchronized (this) {
+                for (PendingEntry entry : entries) {
+                    writer.write(entry.entry.toJSONString());
+                    writer.write('\n');
+                }
+                writer.flush();
+                out.getChannel().force(false);
+            }
+            for (PendingEntry entry : entries) {
+                entry.written.set(null);
+            }
+        } catch (IOException e) {
+            for (PendingEntry entry : entries) {
+                entry.written.setException(e);
+            }
+        }
+    }
+
+    /**
+     * @return The number of entries appended since the journal was opened or last compacted
+     */
+    int size() {
+        synchronized (pendingLock) {
+            return size;
+        }
+    }
+
+    /**
+     * Move every entry written so far aside, before writing a permissions file that will contain them.
+     *
+     * @throws IOException if the entries could not be moved
+     */
+    synchronized void beginCompaction() throws IOException {
+        writer.close();
+        boolean copied = false;
+        try {
+            if (compactingFile.exists() || !file.renameTo(compactingFile)) {
+                // A previous compaction did not finish, so its entries are still needed as well
+                try (InputStream in = new FileInputStream(file);
+                     OutputStream compacting = new FileOutputStream(compactingFile, true)) {
+                    final byte[] buffer = new byte[8192];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        compacting.write(buffer, 0, read);
+                    }
+                }
+                copied = true;
+            }
+        } finally {
+            // If the entries could not be moved aside, they stay in the journal and appending continues after them
+            out = new FileOutputStream(file, !copied);
+            writer = new BufferedWriter(new OutputStreamWriter(out, UTF8));
+        }
+        synchronized (pendingLock) {
+            size = 0;
+        }
+    }
+
+    /**
+     * Discard the entries moved aside by {@link #beginCompaction()}, once the permissions file containing them has
+     * been written.
+     */
+    synchronized void finishCompaction() {
+        compactingFile.delete();
+    }
+
+    /**
+     * Write out any pending entries, then close the journal.
+     *
+     * @throws IOException if the journal could not be closed
+     */
+    void close() throws IOException {
+        if (executor != null) {
+            executor.shutdown();
+            try {
+                executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (this) {
+            if (writer != null) {
+                writer.close();
+                writer = null;
+            }
+        }
+    }
+
+    /**
+     * An entry waiting to be written
+     */
+    private static class PendingEntry {
+        private final JSONObject entry;
+        private final SettableFuture<Void> written = SettableFuture.create();
+
+        private PendingEntry(JSONObject entry) {
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * The entries read from the journal of a previous session
+     */
+    static class Replay {
+        private final List<Entry> entries = new ArrayList<>();
+        private int skipped;
+
+        List<Entry> getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return The number of lines that could not be parsed
+         */
+        int getSkipped() {
+            return skipped;
+        }
+    }
+
+    /**
+     * A single recorded change
+     */
+    static class Entry {
+        private final String type, identifier;
+        private final Object data;
+
+        private Entry(String type, String identifier, @Nullable Object data) {
+            this.type = type;
+            this.identifier = identifier;
+            this.data = data;
+        }
+
+        String getType() {
+            return type;
+        }
+
+        String getIdentifier() {
+            return identifier;
+        }
+
+        @Nullable
+        Object getData() {
+            return data;
+        }
+    }
+}
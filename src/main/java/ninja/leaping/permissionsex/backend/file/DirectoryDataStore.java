@@ -0,0 +1,374 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.file;
+
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.configurate.json.FieldValueSeparatorStyle;
+import ninja.leaping.configurate.json.JSONConfigurationLoader;
+import ninja.leaping.configurate.loader.ConfigurationLoader;
+import ninja.leaping.configurate.objectmapping.ObjectMappingException;
+import ninja.leaping.configurate.objectmapping.Setting;
+import ninja.leaping.permissionsex.backend.AbstractDataStore;
+import ninja.leaping.permissionsex.backend.ConversionUtils;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.data.ImmutableOptionSubjectData;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.LinkedHashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static ninja.leaping.permissionsex.util.Translations._;
+
+/**
+ * A data store keeping each subject in its own file, at {@code <directory>/<type>/<identifier>.json}.
+ * Subjects use the same format as within a {@link FileDataStore}'s permissions file, so data can be moved between the
+ * two with {@link ninja.leaping.permissionsex.PermissionsEx#importDataFrom(String)}.
+ *
+ * Unlike the single-file backend, a change only rewrites the file of the subject changed.
+ */
+public final class DirectoryDataStore extends AbstractDataStore {
+    public static final Factory FACTORY = new Factory("directory", DirectoryDataStore.class);
+    private static final String EXTENSION = ".json";
+    private static final String ENCODING = "UTF-8";
+    private static final FileFilter DIRECTORIES = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isDirectory();
+        }
+    };
+    private static final FileFilter SUBJECT_FILES = new FileFilter() {
+        @Override
+        public boolean accept(File file) {
+            return file.isFile() && file.getName().endsWith(EXTENSION);
+        }
+    };
+
+    @Setting(comment = "The directory subject files are stored in, relative to the PermissionsEx configuration directory")
+    private String directory = "permissions";
+
+    private File baseDirectory;
+    /**
+     * Writes are performed in order on a single thread, so a subject's file always ends up with its most recent data.
+     */
+    private ExecutorService writeExecutor;
+    /**
+     * The most recent data queued for each subject whose write has not completed yet. Reads consult this before the
+     * subject's file, which may be outdated or briefly missing while it is replaced.
+     */
+    private final ConcurrentMap<Map.Entry<String, String>, PendingWrite> pendingWrites = new ConcurrentHashMap<>();
+
+    public DirectoryDataStore() {
+        super(FACTORY);
+    }
+
+    @Override
+    protected void initializeInternal() throws PermissionsLoadingException {
+        baseDirectory = new File(getManager().getBaseDirectory(), directory);
+        final boolean created = !baseDirectory.isDirectory();
+        if (created && !baseDirectory.mkdirs()) {
+            throw new PermissionsLoadingException(_("Unable to create permissions directory %s", baseDirectory));
+        }
+        writeExecutor = Executors.newSingleThreadExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("PermissionsEx directory writer " + directory)
+                .setDaemon(true)
+                .build());
+
+        if (created) { // New directory, populate with default data
+            try {
+                performBulkOperationSync(new Function<DataStore, Void>() {
+                    @Nullable
+                    @Override
+                    public Void apply(@Nullable DataStore input) {
+                        applyDefaultData();
+                        return null;
+                    }
+                });
+            } catch (Exception e) {
+                throw new PermissionsLoadingException(_("Error creating initial data for directory backend"), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (writeExecutor != null) {
+            writeExecutor.shutdown();
+            try {
+                writeExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Encode a type or identifier as a file name. On top of URL encoding, uppercase letters and {@code *} are escaped,
+     * so names differing only in case do not share a file on case-insensitive filesystems, and every name is legal
+     * on Windows. The result is still decoded by {@link URLDecoder}.
+     *
+     * @param name The name to encode
+     * @return The encoded name
+     */
+    private static String encode(String name) {
+        final String encoded;
+        try {
+            encoded = URLEncoder.encode(name, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e); // UTF-8 is always supported
+        }
+        final StringBuilder ret = new StringBuilder(encoded.length());
+        for (int i = 0; i < encoded.length(); ++i) {
+            final char c = encoded.charAt(i);
+            if (c == '%') { // Existing escapes are kept as they are
+                ret.append(encoded, i, i + 3);
+                i += 2;
+            } else if ((c >= 'A' && c <= 'Z') || c == '*') {
+                ret.append('%').append(Integer.toHexString(c).toUpperCase(Locale.ROOT));
+            } else {
+                ret.append(c);
+            }
+        }
+        return ret.toString();
+    }
+
+    private static String decode(String name) {
+        try {
+            return URLDecoder.decode(name, ENCODING);
+        } catch (UnsupportedEncodingException e) {
+            throw new Error(e);
+        }
+    }
+
+    private File getTypeDirectory(String type) {
+        return new File(baseDirectory, encode(type));
+    }
+
+    private File getSubjectFile(String type, String identifier) {
+        return new File(getTypeDirectory(type), encode(identifier) + EXTENSION);
+    }
+
+    private static ConfigurationLoader<? extends ConfigurationNode> createLoader(File file) {
+        return JSONConfigurationLoader.builder()
+                .setFile(file)
+                .setIndent(4)
+                .setFieldValueSeparatorStyle(FieldValueSeparatorStyle.SPACE_AFTER)
+                .build();
+    }
+
+    @Override
+    protected ImmutableOptionSubjectData getDataInternal(String type, String identifier) throws PermissionsLoadingException {
+        final PendingWrite pending = pendingWrites.get(Maps.immutableEntry(type, identifier));
+        if (pending != null) {
+            return pending.data == null ? new FileOptionSubjectData() : pending.data;
+        }
+        final File subjectFile = getSubjectFile(type, identifier);
+        if (!subjectFile.isFile()) {
+            return new FileOptionSubjectData();
+        }
+        try {
+            return FileOptionSubjectData.fromNode(createLoader(subjectFile).load());
+        } catch (IOException e) {
+            throw new PermissionsLoadingException(_("While loading subject data for %s:%s from %s", type, identifier, subjectFile), e);
+        } catch (ObjectMappingException e) {
+            throw new PermissionsLoadingException(_("While deserializing subject data for %s:%s", type, identifier), e);
+        }
+    }
+
+    @Override
+    protected ListenableFuture<ImmutableOptionSubjectData> setDataInternal(final String type, final String identifier, final ImmutableOptionSubjectData data) {
+        final Map.Entry<String, String> key = Maps.immutableEntry(type, identifier);
+        final PendingWrite pending = new PendingWrite(data);
+        pendingWrites.put(key, pending);
+        final ListenableFutureTask<ImmutableOptionSubjectData> ret = ListenableFutureTask.create(new Callable<ImmutableOptionSubjectData>() {
+            @Override
+            public ImmutableOptionSubjectData call() throws Exception {
+                try {
+                    return writeSubject(type, identifier, data);
+                } finally {
+                    pendingWrites.remove(key, pending); // Unless a later write is already queued
+                }
+            }
+        });
+        writeExecutor.execute(ret);
+        return ret;
+    }
+
+    private ImmutableOptionSubjectData writeSubject(String type, String identifier, ImmutableOptionSubjectData data) throws IOException, ObjectMappingException {
+        final File subjectFile = getSubjectFile(type, identifier);
+        if (data == null) {
+            if (subjectFile.exists() && !subjectFile.delete()) {
+                throw new IOException("Unable to delete " + subjectFile);
+            }
+            return null;
+        }
+
+        final FileOptionSubjectData fileData;
+        if (data instanceof FileOptionSubjectData) {
+            fileData = (FileOptionSubjectData) data;
+        } else {
+            fileData = new FileOptionSubjectData();
+            ConversionUtils.transfer(data, fileData);
+        }
+        final ConfigurationNode node = SimpleConfigurationNode.root();
+        fileData.serialize(node);
+        write(subjectFile, node);
+        return fileData;
+    }
+
+    /**
+     * Write a subject's file by replacing it with a complete temporary file, so a failed write never leaves a
+     * truncated subject behind.
+     *
+     * @param subjectFile The file to write
+     * @param node The contents to write
+     * @throws IOException if the file could not be written
+     */
+    private static void write(File subjectFile, ConfigurationNode node) throws IOException {
+        final File parent = subjectFile.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Unable to create directory " + parent);
+        }
+        final File tempFile = new File(parent, subjectFile.getName() + ".tmp");
+        createLoader(tempFile).save(node);
+        if (!tempFile.renameTo(subjectFile)) {
+            // Renaming over an existing file is not possible on every platform
+            if (!subjectFile.delete() || !tempFile.renameTo(subjectFile)) {
+                throw new IOException("Unable to move " + tempFile + " to " + subjectFile);
+            }
+        }
+    }
+
+    @Override
+    public boolean isRegistered(String type, String identifier) {
+        final PendingWrite pending = pendingWrites.get(Maps.immutableEntry(type, identifier));
+        if (pending != null) {
+            return pending.data != null;
+        }
+        return getSubjectFile(type, identifier).isFile();
+    }
+
+    @Override
+    public Iterable<String> getAllIdentifiers(String type) {
+        final Set<String> ret = new LinkedHashSet<>();
+        final File[] files = getTypeDirectory(type).listFiles(SUBJECT_FILES);
+        if (files != null) {
+            for (File file : files) {
+                final String name = file.getName();
+                ret.add(decode(name.substring(0, name.length() - EXTENSION.length())));
+            }
+        }
+        for (Map.Entry<Map.Entry<String, String>, PendingWrite> pending : pendingWrites.entrySet()) {
+            if (pending.getKey().getKey().equals(type)) {
+                if (pending.getValue().data == null) {
+                    ret.remove(pending.getKey().getValue());
+                } else {
+                    ret.add(pending.getKey().getValue());
+                }
+            }
+        }
+        return ImmutableList.copyOf(ret);
+    }
+
+    @Override
+    public Set<String> getRegisteredTypes() {
+        final ImmutableSet.Builder<String> ret = ImmutableSet.builder();
+        final File[] types = baseDirectory.listFiles(DIRECTORIES);
+        if (types != null) {
+            for (File type : types) {
+                final File[] subjects = type.listFiles(SUBJECT_FILES);
+                if (subjects != null && subjects.length > 0) {
+                    ret.add(decode(type.getName()));
+                }
+            }
+        }
+        for (Map.Entry<Map.Entry<String, String>, PendingWrite> pending : pendingWrites.entrySet()) {
+            if (pending.getValue().data != null) {
+                ret.add(pending.getKey().getKey());
+            }
+        }
+        return ret.build();
+    }
+
+    @Override
+    public Iterable<Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData>> getAll() {
+        return Iterables.concat(Iterables.transform(getRegisteredTypes(), new Function<String, Iterable<Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData>>>() {
+            @Nullable
+            @Override
+            public Iterable<Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData>> apply(final String type) {
+                return Iterables.transform(getAll(type), new Function<Map.Entry<String, ImmutableOptionSubjectData>, Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData>>() {
+                    @Nullable
+                    @Override
+                    public Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData> apply(Map.Entry<String, ImmutableOptionSubjectData> input) {
+                        return Maps.immutableEntry(Maps.immutableEntry(type, input.getKey()), input.getValue());
+                    }
+                });
+            }
+        }));
+    }
+
+    @Override
+    protected <T> T performBulkOperationSync(Function<DataStore, T> function) throws Exception {
+        final T ret = function.apply(this);
+        // Wait for every write made by the operation
+        final ListenableFutureTask<Void> flush = ListenableFutureTask.create(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                return null;
+            }
+        });
+        writeExecutor.execute(flush);
+        flush.get();
+        return ret;
+    }
+
+    /**
+     * Data queued to be written for a subject, or null if the subject is to be removed. Each write has its own
+     * instance, so a completed write only clears its own entry.
+     */
+    private static class PendingWrite {
+        @Nullable
+        private final ImmutableOptionSubjectData data;
+
+        private PendingWrite(@Nullable ImmutableOptionSubjectData data) {
+            this.data = data;
+        }
+    }
+}
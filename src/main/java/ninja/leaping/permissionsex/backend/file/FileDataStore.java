@@ -19,15 +19,14 @@ package ninja.leaping.permissionsex.backend.file;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
 import com.google.common.base.Objects;
-import com.google.common.base.Predicate;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
-import com.google.common.util.concurrent.ListenableFutureTask;
 import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.ConfigurationOptions;
+import ninja.leaping.configurate.SimpleConfigurationNode;
 import ninja.leaping.configurate.hocon.HoconConfigurationLoader;
 import ninja.leaping.configurate.json.FieldValueSeparatorStyle;
 import ninja.leaping.configurate.json.JSONConfigurationLoader;
@@ -40,20 +39,30 @@ import ninja.leaping.configurate.yaml.YAMLConfigurationLoader;
 import ninja.leaping.permissionsex.backend.AbstractDataStore;
 import ninja.leaping.permissionsex.backend.ConversionUtils;
 import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.SaveScheduler;
 import ninja.leaping.permissionsex.data.ImmutableOptionSubjectData;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.util.NodeTree;
 
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static ninja.leaping.configurate.transformation.ConfigurationTransformation.WILDCARD_OBJECT;
 import static ninja.leaping.permissionsex.util.Translations._;
@@ -66,10 +75,35 @@ public final class FileDataStore extends AbstractDataStore {
     private String file;
     @Setting
     private boolean compat = false;
-
+    @Setting("save-debounce")
+    private long saveDebounce = 500;
+    @Setting("save-max-delay")
+    private long saveMaxDelay = 5000;
+    @Setting("journal-compact-threshold")
+    private int journalCompactThreshold = 1000;
+    @Setting("lazy-load")
+    private boolean lazyLoad = false;
+    @Setting("binary-snapshot")
+    private boolean binarySnapshot = false;
+
+    private File permissionsFile;
     private ConfigurationLoader permissionsFileLoader;
     private ConfigurationNode permissionsConfig;
     private final AtomicInteger saveSuppressed = new AtomicInteger();
+    private SaveScheduler saveScheduler;
+    private ChangeJournal journal;
+    /**
+     * Whether the permissions file is loaded lazily. The permissions config then only holds subjects changed since the
+     * file was last written, removed subjects are tracked separately, and all other subjects are read from the binary
+     * snapshot when there is one, or otherwise from the permissions file through its index.
+     */
+    private boolean lazilyLoaded;
+    private volatile SubjectIndex index;
+    private volatile BinarySnapshot snapshot;
+    private volatile boolean snapshotStale;
+    private final Set<Map.Entry<String, String>> removedSubjects = Collections.newSetFromMap(new ConcurrentHashMap<Map.Entry<String, String>, Boolean>());
+    private final ReadWriteLock indexLock = new ReentrantReadWriteLock();
+    private final Object changesLock = new Object();
 
     public FileDataStore() {
         super(FACTORY);
@@ -109,6 +143,20 @@ public final class FileDataStore extends AbstractDataStore {
 
     @Override
     protected void initializeInternal() throws PermissionsLoadingException {
+        if (saveDebounce < 0 || saveMaxDelay < 0) {
+            throw new PermissionsLoadingException(_("Save delays for file %s must not be negative", file));
+        }
+        if (journalCompactThreshold <= 0) {
+            throw new PermissionsLoadingException(_("The journal compaction threshold for file %s must be positive", file));
+        }
+        saveScheduler = new SaveScheduler("PermissionsEx save " + file, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                saveSync();
+                return null;
+            }
+        }, saveDebounce, saveMaxDelay, TimeUnit.MILLISECONDS);
+
         File permissionsFile = new File(getManager().getBaseDirectory(), file);
         if (file.endsWith(".yml")) {
             permissionsFile = migrateLegacy(permissionsFile, ".yml", YAMLConfigurationLoader.builder().setFile(permissionsFile).build(), "YML");
@@ -117,6 +165,15 @@ public final class FileDataStore extends AbstractDataStore {
         } else {
             permissionsFileLoader = createLoader(permissionsFile);
         }
+        this.permissionsFile = permissionsFile;
+
+        if (lazyLoad && permissionsFile.isFile() && (loadSnapshot() || loadIndex())) {
+            recoverJournal();
+            if (snapshotStale) {
+                saveScheduler.requestSave();
+            }
+            return;
+        }
 
         try {
             permissionsConfig = permissionsFileLoader.load(ConfigurationOptions.defaults());//.setMapFactory(MapFactories.unordered()));
@@ -209,7 +266,7 @@ public final class FileDataStore extends AbstractDataStore {
                                                     continue;
                                                 }
                                                 permission = ConversionUtils.convertLegacyPermission(permission);
-                                                if (permission.contains("*")) {
+                                                if (hasPartialWildcard(permission)) {
                                                     getManager().getLogger().warn("The permission at {} contains a now-illegal character '*'", Arrays.toString(configurationNode.getPath()));
                                                 }
                                                 configurationNode.getNode(permission).setValue(value);
@@ -275,41 +332,430 @@ public final class FileDataStore extends AbstractDataStore {
             if (endVersion > startVersion) {
                 getManager().getLogger().info(_("%s schema version updated from %s to %s", permissionsFile, startVersion, endVersion).translateFormatted(Locale.getDefault()));
                 try {
-                    save().get();
+                    saveScheduler.saveNow().get();
                 } catch (InterruptedException | ExecutionException e) {
                     throw new PermissionsLoadingException(_("While performing version upgrade"), e);
                 }
             }
         }
+        recoverJournal();
+    }
+
+    /**
+     * Index the permissions file instead of loading it entirely. Files that need a schema upgrade are still loaded
+     * in full, so the upgrade can be applied.
+     *
+     * @return Whether the file will be loaded lazily
+     * @throws PermissionsLoadingException if the file could not be indexed
+     */
+    private boolean loadIndex() throws PermissionsLoadingException {
+        final SubjectIndex index;
+        try {
+            index = SubjectIndex.build(permissionsFile);
+        } catch (IOException e) {
+            throw new PermissionsLoadingException(_("While indexing permissions file %s", permissionsFile), e);
+        }
+        final Object schemaVersion = index.getValues().get("schema-version");
+        if (!(schemaVersion instanceof Number) || ((Number) schemaVersion).intValue() != 2) {
+            return false;
+        }
+        this.permissionsConfig = SimpleConfigurationNode.root();
+        this.index = index;
+        this.lazilyLoaded = true;
+        this.snapshotStale = binarySnapshot;
+        return true;
+    }
+
+    private File getSnapshotFile() {
+        return new File(permissionsFile.getPath() + ".snapshot");
+    }
+
+    /**
+     * Read subjects from the binary snapshot instead of the permissions file, if a snapshot has been written for the
+     * file's current contents. The snapshot is only an optimization, so any problem with it is logged and the
+     * permissions file is loaded instead.
+     *
+     * @return Whether subjects will be read from the snapshot
+     */
+    private boolean loadSnapshot() {
+        if (!binarySnapshot) {
+            return false;
+        }
+        try {
+            final BinarySnapshot snapshot = BinarySnapshot.open(getSnapshotFile(), BinarySnapshot.checksum(permissionsFile));
+            if (snapshot != null) {
+                this.permissionsConfig = SimpleConfigurationNode.root();
+                this.snapshot = snapshot;
+                this.lazilyLoaded = true;
+                return true;
+            }
+        } catch (IOException e) {
+            getManager().getLogger().warn(_("Unable to read the binary snapshot of %s, loading the file itself instead", permissionsFile).translateFormatted(Locale.getDefault()), e);
+        }
+        return false;
+    }
+
+    /**
+     * Apply any changes recorded in the journal but not yet written to the permissions file, then start journaling
+     * new changes. Until this point, every change is written straight to the permissions file.
+     *
+     * @throws PermissionsLoadingException if the journal could not be read or opened
+     */
+    private void recoverJournal() throws PermissionsLoadingException {
+        final ChangeJournal journal = new ChangeJournal(new File(permissionsFile.getPath() + ".journal"));
+        try {
+            final ChangeJournal.Replay replay = journal.replay();
+            for (ChangeJournal.Entry entry : replay.getEntries()) {
+                permissionsConfig.getNode(typeToSection(entry.getType()), entry.getIdentifier()).setValue(entry.getData());
+                if (lazilyLoaded) {
+                    markRemoved(typeToSection(entry.getType()), entry.getIdentifier(), entry.getData() == null);
+                }
+            }
+            if (replay.getSkipped() > 0) {
+                getManager().getLogger().warn(_("Skipped %s unreadable entries in the journal for %s", replay.getSkipped(), permissionsFile).translateFormatted(Locale.getDefault()));
+            }
+            journal.open();
+            this.journal = journal;
+            if (!replay.getEntries().isEmpty()) {
+                getManager().getLogger().info(_("Recovered %s changes to %s from its journal", replay.getEntries().size(), permissionsFile).translateFormatted(Locale.getDefault()));
+                saveScheduler.saveNow().get();
+            }
+        } catch (IOException | InterruptedException | ExecutionException e) {
+            throw new PermissionsLoadingException(_("While recovering changes from the journal for %s", permissionsFile), e);
+        }
     }
 
     @Override
     public void close() {
-
+        if (saveScheduler != null) {
+            try {
+                saveScheduler.close();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                getManager().getLogger().warn(_("Unable to close the journal for %s", permissionsFile).translateFormatted(Locale.getDefault()), e);
+            }
+        }
     }
 
+    /**
+     * Request a save of the permissions file. Changes made in quick succession are written out together.
+     *
+     * @return A future completing once the file has been saved with the current changes
+     */
     private ListenableFuture<Void> save() {
         if (saveSuppressed.get() <= 0) {
-            final ListenableFutureTask<Void> ret = ListenableFutureTask.create(new Callable<Void>() {
-                @Override
-                public Void call() throws Exception {
-                    saveSync();
-                    return null;
-                }
-            });
-            getManager().executeAsyncronously(ret);
-            return ret;
+            return saveScheduler.requestSave();
         } else {
             return Futures.immediateFuture(null);
         }
     }
 
+    /**
+     * Record a change to a subject. Once the journal is open, a change is durable as soon as it has been appended,
+     * and the permissions file is only rewritten to compact the journal. The journal writes entries on its own thread,
+     * so this only captures the subject's current data and never waits for the disk.
+     *
+     * @param type The type of the changed subject
+     * @param identifier The identifier of the changed subject
+     * @return A future completing once the change has been durably recorded
+     */
+    private ListenableFuture<Void> commit(String type, String identifier) {
+        final ChangeJournal journal = this.journal;
+        if (journal == null) {
+            return save();
+        }
+        final ListenableFuture<Void> appended = journal.append(type, identifier, permissionsConfig.getNode(typeToSection(type), identifier).getValue());
+        if (saveSuppressed.get() <= 0) {
+            if (journal.size() >= journalCompactThreshold) {
+                saveScheduler.saveNow();
+            } else {
+                saveScheduler.requestSave();
+            }
+        }
+        return appended;
+    }
+
+    /**
+     * Write the permissions file, replacing the existing file only once the new one is complete.
+     * Journal entries written before the save began are discarded once it has finished.
+     *
+     * @throws IOException if the permissions file could not be written
+     */
     private void saveSync() throws IOException {
         if (saveSuppressed.get() <= 0) {
-            permissionsFileLoader.save(permissionsConfig);
+            final ChangeJournal journal = this.journal;
+            if (journal != null) {
+                journal.beginCompaction();
+            }
+            final File tempFile = new File(permissionsFile.getPath() + ".tmp");
+            if (lazilyLoaded) {
+                saveLazy(tempFile);
+            } else {
+                final ConfigurationNode toSave = SimpleConfigurationNode.root();
+                synchronized (changesLock) { // Copy, so the file is written from a consistent tree while changes continue
+                    toSave.setValue(permissionsConfig.getValue());
+                }
+                createLoader(tempFile).save(toSave);
+                replace(tempFile, permissionsFile);
+            }
+            if (journal != null) {
+                journal.finishCompaction();
+            }
+        }
+    }
+
+    private static void replace(File tempFile, File target) throws IOException {
+        if (!tempFile.renameTo(target)) {
+            // Renaming over an existing file is not possible on every platform
+            if (!target.delete() || !tempFile.renameTo(target)) {
+                throw new IOException("Unable to move " + tempFile + " to " + target);
+            }
         }
     }
 
+    /**
+     * Write a lazily loaded permissions file by copying unchanged subjects from the existing file, then re-index it.
+     * When enabled, the binary snapshot is rewritten to match, and a stale snapshot is rewritten even without changes.
+     * Changed subjects are dropped from memory once written, unless they have been changed again in the meantime.
+     *
+     * @param tempFile The file to write to before replacing the permissions file
+     * @throws IOException if the permissions file could not be written
+     */
+    private void saveLazy(File tempFile) throws IOException {
+        final Map<String, Map<String, Object>> changes = new HashMap<>();
+        final Set<Map.Entry<String, String>> removed;
+        boolean changed = false;
+        synchronized (changesLock) {
+            for (Map.Entry<Object, ? extends ConfigurationNode> section : permissionsConfig.getChildrenMap().entrySet()) {
+                final Map<String, Object> sectionChanges = new LinkedHashMap<>();
+                for (Map.Entry<Object, ? extends ConfigurationNode> subject : section.getValue().getChildrenMap().entrySet()) {
+                    sectionChanges.put(subject.getKey().toString(), subject.getValue().getValue());
+                    changed = true;
+                }
+                changes.put(section.getKey().toString(), sectionChanges);
+            }
+            removed = ImmutableSet.copyOf(removedSubjects);
+        }
+        for (Map.Entry<String, String> subject : removed) {
+            Map<String, Object> sectionChanges = changes.get(subject.getKey());
+            if (sectionChanges == null) {
+                sectionChanges = new LinkedHashMap<>();
+                changes.put(subject.getKey(), sectionChanges);
+            }
+            sectionChanges.put(subject.getValue(), null);
+            changed = true;
+        }
+        if (!changed && !(binarySnapshot && snapshotStale)) {
+            return;
+        }
+
+        final SubjectIndex index;
+        BinarySnapshot previousSnapshot = this.snapshot;
+        indexLock.writeLock().lock();
+        try {
+            // A snapshot describing the file from before it was modified by hand cannot be reused
+            if (this.index != null) {
+                if (!this.index.isCurrent(permissionsFile)) {
+                    previousSnapshot = null;
+                }
+            } else if (previousSnapshot != null && !isSnapshotCurrent()) {
+                previousSnapshot = null;
+            }
+            index = getCurrentIndex(); // Also indexes a file whose subjects have so far only been read from the snapshot
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+        final SubjectIndex newIndex;
+        if (changed) {
+            index.write(permissionsFile, tempFile, changes);
+            newIndex = SubjectIndex.build(tempFile);
+        } else {
+            newIndex = index;
+        }
+        final BinarySnapshot newSnapshot = binarySnapshot ? writeSnapshot(newIndex, changed ? tempFile : permissionsFile, changes, previousSnapshot) : null;
+
+        indexLock.writeLock().lock();
+        try {
+            if (changed) {
+                replace(tempFile, permissionsFile);
+            }
+            this.index = newIndex;
+            this.snapshot = newSnapshot;
+            this.snapshotStale = newSnapshot == null;
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+
+        synchronized (changesLock) {
+            for (Map.Entry<String, Map<String, Object>> section : changes.entrySet()) {
+                for (Map.Entry<String, Object> subject : section.getValue().entrySet()) {
+                    final ConfigurationNode node = permissionsConfig.getNode(section.getKey(), subject.getKey());
+                    if (subject.getValue() != null && Objects.equal(node.getValue(), subject.getValue())) {
+                        node.setValue(null);
+                    }
+                }
+            }
+            removedSubjects.removeAll(removed);
+        }
+    }
+
+    private void markRemoved(String section, String identifier, boolean removed) {
+        if (removed) {
+            removedSubjects.add(Maps.immutableEntry(section, identifier));
+        } else {
+            removedSubjects.remove(Maps.immutableEntry(section, identifier));
+        }
+    }
+
+    /**
+     * Write a binary snapshot of every subject in a permissions file. Subjects are taken from the previous snapshot
+     * where possible, so only changed subjects, or every subject when there is no usable snapshot yet, are parsed.
+     * A snapshot is only an optimization, so failing to write one is logged rather than failing the save.
+     *
+     * @param index The index of the permissions file
+     * @param file The permissions file
+     * @param changes Changed subjects, which the previous snapshot does not match
+     * @param previous The snapshot of the permissions file before these changes
+     * @return The new snapshot, or null if it could not be written
+     */
+    @Nullable
+    private BinarySnapshot writeSnapshot(SubjectIndex index, File file, Map<String, Map<String, Object>> changes, @Nullable BinarySnapshot previous) {
+        final File snapshotFile = getSnapshotFile(), tempFile = new File(snapshotFile.getPath() + ".tmp");
+        try {
+            final BinarySnapshot.Writer writer = new BinarySnapshot.Writer();
+            for (String section : index.getSections()) {
+                final Map<String, Object> sectionChanges = changes.get(section);
+                for (String identifier : index.getIdentifiers(section)) {
+                    FileOptionSubjectData data = null;
+                    if (sectionChanges != null && sectionChanges.get(identifier) != null) {
+                        data = FileOptionSubjectData.fromNode(SimpleConfigurationNode.root().setValue(sectionChanges.get(identifier)));
+                    } else if (previous != null) {
+                        data = previous.get(section, identifier);
+                    }
+                    if (data == null) {
+                        data = FileOptionSubjectData.fromNode(SimpleConfigurationNode.root().setValue(index.read(file, section, identifier)));
+                    }
+                    writer.add(section, identifier, data);
+                }
+            }
+            final long checksum = BinarySnapshot.checksum(file);
+            writer.write(tempFile, checksum);
+            replace(tempFile, snapshotFile); // Before mapping, since a mapped file cannot be replaced on every platform
+            return BinarySnapshot.open(snapshotFile, checksum);
+        } catch (IOException | ObjectMappingException | PermissionsLoadingException e) {
+            getManager().getLogger().warn(_("Unable to write the binary snapshot of %s", permissionsFile).translateFormatted(Locale.getDefault()), e);
+            return null;
+        }
+    }
+
+    /**
+     * Get a subject's data. For lazily loaded files, subjects that have not been changed since the permissions file
+     * was written are decoded from the binary snapshot, or parsed from the permissions file.
+     */
+    private FileOptionSubjectData getSubjectData(String section, String identifier) throws IOException, ObjectMappingException, PermissionsLoadingException {
+        if (!lazilyLoaded) {
+            return FileOptionSubjectData.fromNode(permissionsConfig.getNode(section, identifier));
+        }
+        synchronized (changesLock) { // Changes are dropped from memory once saved, so read them while they are present
+            final ConfigurationNode node = permissionsConfig.getNode(section, identifier);
+            if (!node.isVirtual() || removedSubjects.contains(Maps.immutableEntry(section, identifier))) {
+                return FileOptionSubjectData.fromNode(node);
+            }
+        }
+        indexLock.readLock().lock();
+        try {
+            final BinarySnapshot snapshot = this.snapshot;
+            if (snapshot != null) {
+                final FileOptionSubjectData ret = snapshot.get(section, identifier);
+                return ret == null ? new FileOptionSubjectData() : ret;
+            }
+            if (index.isCurrent(permissionsFile)) {
+                return FileOptionSubjectData.fromNode(SimpleConfigurationNode.root().setValue(index.read(permissionsFile, section, identifier)));
+            }
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        indexLock.writeLock().lock();
+        try {
+            return FileOptionSubjectData.fromNode(SimpleConfigurationNode.root().setValue(getCurrentIndex().read(permissionsFile, section, identifier)));
+        } finally {
+            indexLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return Whether the snapshot file on disk was written from the current contents of the permissions file
+     */
+    private boolean isSnapshotCurrent() {
+        try {
+            return BinarySnapshot.isCurrent(getSnapshotFile(), BinarySnapshot.checksum(permissionsFile));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Get an index matching the permissions file's current contents. A file modified outside of PermissionsEx, such
+     * as by hand while the server is running, is indexed again, so its subjects are read in their new form rather than
+     * from offsets that no longer match. Must be called with the index write lock held.
+     *
+     * @return The index of the permissions file
+     * @throws IOException if the permissions file could not be indexed
+     */
+    private SubjectIndex getCurrentIndex() throws IOException {
+        SubjectIndex index = this.index;
+        if (index == null || !index.isCurrent(permissionsFile)) {
+            if (index != null) {
+                getManager().getLogger().warn(_("%s was modified outside of PermissionsEx, indexing it again", permissionsFile).translateFormatted(Locale.getDefault()));
+            }
+            index = SubjectIndex.build(permissionsFile);
+            this.index = index;
+        }
+        return index;
+    }
+
+    /**
+     * @return The subjects present in the permissions file of a lazily loaded store, ignoring unsaved changes
+     */
+    private Set<String> getStoredIdentifiers(String section) {
+        final BinarySnapshot snapshot = this.snapshot;
+        if (snapshot != null) {
+            return snapshot.getIdentifiers(section);
+        }
+        final SubjectIndex index = this.index;
+        return index == null ? Collections.<String>emptySet() : index.getIdentifiers(section);
+    }
+
+    private Set<String> getStoredSections() {
+        final BinarySnapshot snapshot = this.snapshot;
+        if (snapshot != null) {
+            return snapshot.getSections();
+        }
+        final SubjectIndex index = this.index;
+        return index == null ? Collections.<String>emptySet() : index.getSections();
+    }
+
+    /**
+     * Whole segments of '*' are wildcards, but a '*' within a segment has no meaning.
+     *
+     * @param permission The permission to check
+     * @return Whether any segment contains a '*' without being a wildcard
+     */
+    private static boolean hasPartialWildcard(String permission) {
+        for (String segment : permission.split("\\.")) {
+            if (segment.contains(NodeTree.WILDCARD) && !segment.equals(NodeTree.WILDCARD)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private String typeToSection(String type) {
         return type + "s";
     }
@@ -317,9 +763,11 @@ public final class FileDataStore extends AbstractDataStore {
     @Override
     public ImmutableOptionSubjectData getDataInternal(String type, String identifier) throws PermissionsLoadingException {
         try {
-            return FileOptionSubjectData.fromNode(permissionsConfig.getNode(typeToSection(type), identifier));
+            return getSubjectData(typeToSection(type), identifier);
         } catch (ObjectMappingException e) {
             throw new PermissionsLoadingException(_("While deserializing subject data for %s:", identifier), e);
+        } catch (IOException e) {
+            throw new PermissionsLoadingException(_("While reading subject data for %s from %s", identifier, permissionsFile), e);
         }
     }
 
@@ -327,8 +775,13 @@ public final class FileDataStore extends AbstractDataStore {
     protected ListenableFuture<ImmutableOptionSubjectData> setDataInternal(String type, String identifier, final ImmutableOptionSubjectData data) {
         try {
             if (data == null) {
-                permissionsConfig.getNode(typeToSection(type), identifier).setValue(null);
-                return Futures.transform(save(), Functions.<ImmutableOptionSubjectData>constant(null));
+                synchronized (changesLock) {
+                    permissionsConfig.getNode(typeToSection(type), identifier).setValue(null);
+                    if (lazilyLoaded) {
+                        markRemoved(typeToSection(type), identifier, true);
+                    }
+                    return Futures.transform(commit(type, identifier), Functions.<ImmutableOptionSubjectData>constant(null));
+                }
             }
 
             final FileOptionSubjectData fileData;
@@ -339,8 +792,15 @@ public final class FileDataStore extends AbstractDataStore {
                 fileData = new FileOptionSubjectData();
                 ConversionUtils.transfer(data, fileData);
             }
-            fileData.serialize(permissionsConfig.getNode(typeToSection(type), identifier));
-            return Futures.transform(save(), new Function<Void, ImmutableOptionSubjectData>() {
+            final ListenableFuture<Void> committed;
+            synchronized (changesLock) {
+                fileData.serialize(permissionsConfig.getNode(typeToSection(type), identifier));
+                if (lazilyLoaded) {
+                    markRemoved(typeToSection(type), identifier, false);
+                }
+                committed = commit(type, identifier);
+            }
+            return Futures.transform(committed, new Function<Void, ImmutableOptionSubjectData>() {
                 @Nullable
                 @Override
                 public ImmutableOptionSubjectData apply(Void input) {
@@ -354,45 +814,61 @@ public final class FileDataStore extends AbstractDataStore {
 
     @Override
     public boolean isRegistered(String type, String identifier) {
-        return !permissionsConfig.getNode(typeToSection(type), identifier).isVirtual();
+        final String section = typeToSection(type);
+        if (!permissionsConfig.getNode(section, identifier).isVirtual()) {
+            return true;
+        }
+        return getStoredIdentifiers(section).contains(identifier) && !removedSubjects.contains(Maps.immutableEntry(section, identifier));
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public Iterable<String> getAllIdentifiers(String type) {
-        return (Set) this.permissionsConfig.getNode(typeToSection(type)).getChildrenMap().keySet();
+        final String section = typeToSection(type);
+        final Set<String> ret = new LinkedHashSet<>();
+        for (String identifier : getStoredIdentifiers(section)) {
+            if (!removedSubjects.contains(Maps.immutableEntry(section, identifier))) {
+                ret.add(identifier);
+            }
+        }
+        for (Object identifier : permissionsConfig.getNode(section).getChildrenMap().keySet()) {
+            ret.add(identifier.toString());
+        }
+        return ret;
     }
 
     @Override
     public Set<String> getRegisteredTypes() {
-        return ImmutableSet.copyOf(Iterables.transform(Maps.filterValues(this.permissionsConfig.getChildrenMap(), new Predicate<ConfigurationNode>() {
-            @Override
-            public boolean apply(@Nullable ConfigurationNode input) {
-                return input != null && input.hasMapChildren();
+        final Set<String> sections = new LinkedHashSet<>();
+        for (Map.Entry<Object, ? extends ConfigurationNode> section : this.permissionsConfig.getChildrenMap().entrySet()) {
+            if (section.getValue().hasMapChildren()) {
+                sections.add(section.getKey().toString());
             }
-        }).keySet(), new Function<Object, String>() {
+        }
+        for (String section : getStoredSections()) {
+            if (!getStoredIdentifiers(section).isEmpty()) {
+                sections.add(section);
+            }
+        }
+        return ImmutableSet.copyOf(Iterables.transform(sections, new Function<String, String>() {
             @Nullable
             @Override
-            public String apply(@Nullable Object input) {
-                final String typeStr = input.toString();
-                return typeStr.substring(0, typeStr.length() - 1); // trim trailing s
+            public String apply(@Nullable String input) {
+                return input.substring(0, input.length() - 1); // trim trailing s
             }
         }));
     }
 
     @Override
     public Iterable<Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData>> getAll() {
-        return Iterables.concat(Iterables.transform(permissionsConfig.getChildrenMap().keySet(), new Function<Object, Iterable<Map.Entry<Map.Entry<String,String>,ImmutableOptionSubjectData>>>() {
+        return Iterables.concat(Iterables.transform(getRegisteredTypes(), new Function<String, Iterable<Map.Entry<Map.Entry<String,String>,ImmutableOptionSubjectData>>>() {
             @Nullable
             @Override
-            public Iterable<Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData>> apply(@Nullable final Object type) {
-                final String typeStr = type.toString();
-
-                return Iterables.transform(getAll(typeStr.substring(0, typeStr.length() - 1)), new Function<Map.Entry<String, ImmutableOptionSubjectData>, Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData>>() {
+            public Iterable<Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData>> apply(@Nullable final String type) {
+                return Iterables.transform(getAll(type), new Function<Map.Entry<String, ImmutableOptionSubjectData>, Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData>>() {
                     @Nullable
                     @Override
                     public Map.Entry<Map.Entry<String, String>, ImmutableOptionSubjectData> apply(Map.Entry<String, ImmutableOptionSubjectData> input2) {
-                        return Maps.immutableEntry(Maps.immutableEntry(type.toString(), input2.getKey()), input2.getValue());
+                        return Maps.immutableEntry(Maps.immutableEntry(type, input2.getKey()), input2.getValue());
                     }
                 });
             }
@@ -408,7 +884,7 @@ public final class FileDataStore extends AbstractDataStore {
         } finally {
             saveSuppressed.getAndDecrement();
         }
-        saveSync();
+        saveScheduler.saveNow().get();
         return ret;
     }
 }
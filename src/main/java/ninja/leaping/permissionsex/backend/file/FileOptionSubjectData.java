@@ -25,11 +25,12 @@ import ninja.leaping.configurate.ConfigurationNode;
 import ninja.leaping.configurate.objectmapping.InvalidTypeException;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import ninja.leaping.permissionsex.backend.memory.MemoryOptionSubjectData;
+import ninja.leaping.permissionsex.data.ContextSet;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
 
 import javax.annotation.Nullable;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -68,16 +69,16 @@ public final class FileOptionSubjectData extends MemoryOptionSubjectData {
     }
 
     private static Set<Entry<String, String>> contextsFrom(ConfigurationNode node) {
-        Set<Entry<String, String>> contexts = Collections.emptySet();
+        Set<Entry<String, String>> contexts = ContextSet.EMPTY;
         ConfigurationNode contextsNode = node.getNode(KEY_CONTEXTS);
         if (contextsNode.hasMapChildren()) {
-            contexts = ImmutableSet.copyOf(Collections2.transform(contextsNode.getChildrenMap().entrySet(), new Function<Map.Entry<Object, ? extends ConfigurationNode>, Entry<String, String>>() {
+            contexts = ContextSet.of(ImmutableSet.copyOf(Collections2.transform(contextsNode.getChildrenMap().entrySet(), new Function<Map.Entry<Object, ? extends ConfigurationNode>, Entry<String, String>>() {
                 @Nullable
                 @Override
                 public Entry<String, String> apply(Map.Entry<Object, ? extends ConfigurationNode> ent) {
                     return Maps.immutableEntry(ent.getKey().toString(), String.valueOf(ent.getValue().getValue()));
                 }
-            }));
+            })));
         }
         return contexts;
     }
@@ -106,6 +107,23 @@ public final class FileOptionSubjectData extends MemoryOptionSubjectData {
         }
     }
 
+    /**
+     * Assembles subject data from segments that have already been decoded, without going through the object mapper.
+     */
+    static final class Builder {
+        private final ImmutableMap.Builder<Set<Entry<String, String>>, DataEntry> contexts = ImmutableMap.builder();
+
+        Builder addSegment(Set<Entry<String, String>> contexts, @Nullable Map<String, Integer> permissions, @Nullable Map<String, String> options,
+                           @Nullable List<String> parents, @Nullable Integer defaultValue) {
+            this.contexts.put(ContextSet.of(contexts), newEntry(permissions, options, parents, defaultValue));
+            return this;
+        }
+
+        FileOptionSubjectData build() {
+            return new FileOptionSubjectData(contexts.build());
+        }
+    }
+
     @Override
     public String toString() {
         return "FileOptionSubjectData{" +
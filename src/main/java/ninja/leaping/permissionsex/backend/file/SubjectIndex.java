@@ -0,0 +1,384 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.file;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.PrettyPrinter;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The location of every subject within a permissions file, found by streaming through the file once without
+ * building its node tree. Subjects can then be parsed individually when first requested, so only the index and
+ * the subjects actually in use are kept in memory.
+ *
+ * Top-level values that are not sections of subjects, such as the schema version, are small and kept in full.
+ *
+ * Offsets are only valid for the file as it was indexed. The file's length and modification time are recorded along
+ * with them, and reading or copying subjects from a file where either has changed, such as after an edit by hand,
+ * fails rather than returning or writing out the wrong bytes.
+ */
+final class SubjectIndex {
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    /**
+     * Section name -> subject identifier -> {start, end} byte offsets of the subject's data, in file order
+     */
+    private final Map<String, Map<String, long[]>> sections;
+    private final Map<String, Object> values;
+    private final long length, lastModified;
+
+    private SubjectIndex(Map<String, Map<String, long[]>> sections, Map<String, Object> values, long length, long lastModified) {
+        this.sections = sections;
+        this.values = values;
+        this.length = length;
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Index a permissions file.
+     *
+     * @param file The file to index
+     * @return The index of the file
+     * @throws IOException if the file could not be read, or is not a JSON object
+     */
+    static SubjectIndex build(File file) throws IOException {
+        final Map<String, Map<String, long[]>> sections = new LinkedHashMap<>();
+        final Map<String, Object> values = new LinkedHashMap<>();
+        // Recorded before reading, so a change made while indexing also invalidates the index
+        final long length = file.length(), lastModified = file.lastModified();
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file));
+             JsonParser parser = FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException(file + " does not contain a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                final String key = parser.getCurrentName();
+                if (parser.nextToken() == JsonToken.START_OBJECT) {
+                    final Map<String, long[]> subjects = new LinkedHashMap<>();
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        final String identifier = parser.getCurrentName();
+                        parser.nextToken();
+                        final long start = parser.getTokenLocation().getByteOffset();
+                        parser.skipChildren();
+                        subjects.put(identifier, new long[] {start, parser.getCurrentLocation().getByteOffset()});
+                    }
+                    sections.put(key, subjects);
+                } else {
+                    values.put(key, readValue(parser));
+                }
+            }
+        }
+        return new SubjectIndex(sections, values, length, lastModified);
+    }
+
+    /**
+     * Check whether a file is unchanged since it was indexed, judging by its length and modification time.
+     *
+     * @param file The file this index was built from
+     * @return Whether the offsets in this index are still valid for the file
+     */
+    boolean isCurrent(File file) {
+        return file.length() == length && file.lastModified() == lastModified;
+    }
+
+    private void checkCurrent(File file) throws IOException {
+        if (!isCurrent(file)) {
+            throw new IOException(file + " has been modified since it was indexed");
+        }
+    }
+
+    /**
+     * Read a single JSON value, starting at the parser's current token, into plain maps, lists and scalars.
+     */
+    private static Object readValue(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT:
+                final Map<String, Object> map = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    final String key = parser.getCurrentName();
+                    parser.nextToken();
+                    map.put(key, readValue(parser));
+                }
+                return map;
+            case START_ARRAY:
+                final List<Object> list = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    list.add(readValue(parser));
+                }
+                return list;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return true;
+            case VALUE_FALSE:
+                return false;
+            case VALUE_NULL:
+                return null;
+            default:
+                throw new IOException("Unexpected token " + parser.getCurrentToken() + " at " + parser.getTokenLocation());
+        }
+    }
+
+    private static void writeValue(JsonGenerator generator, @Nullable Object value) throws IOException {
+        if (value instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> ent : ((Map<?, ?>) value).entrySet()) {
+                generator.writeFieldName(String.valueOf(ent.getKey()));
+                writeValue(generator, ent.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof List) {
+            generator.writeStartArray();
+            for (Object child : (List<?>) value) {
+                writeValue(generator, child);
+            }
+            generator.writeEndArray();
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof BigInteger) {
+            generator.writeNumber((BigInteger) value);
+        } else if (value instanceof Number) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value == null) {
+            generator.writeNull();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+
+    private static byte[] readRange(RandomAccessFile file, long[] range) throws IOException {
+        final byte[] ret = new byte[(int) (range[1] - range[0])];
+        file.seek(range[0]);
+        file.readFully(ret);
+        return ret;
+    }
+
+    /**
+     * Parse the data of a single subject from the indexed file.
+     *
+     * @param file The file this index was built from
+     * @param section The section containing the subject
+     * @param identifier The identifier of the subject
+     * @return The subject's data as plain maps, lists and scalars, or null if the subject is not present
+     * @throws IOException if the subject could not be read, or the file has been modified since it was indexed
+     */
+    @Nullable
+    Object read(File file, String section, String identifier) throws IOException {
+        final long[] range = getRange(section, identifier);
+        if (range == null) {
+            return null;
+        }
+        final byte[] data;
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            checkCurrent(file);
+            data = readRange(in, range);
+        }
+        try (JsonParser parser = FACTORY.createParser(data)) {
+            parser.nextToken();
+            return readValue(parser);
+        }
+    }
+
+    @Nullable
+    private long[] getRange(String section, String identifier) {
+        final Map<String, long[]> subjects = sections.get(section);
+        return subjects == null ? null : subjects.get(identifier);
+    }
+
+    boolean contains(String section, String identifier) {
+        return getRange(section, identifier) != null;
+    }
+
+    Set<String> getSections() {
+        return Collections.unmodifiableSet(sections.keySet());
+    }
+
+    Set<String> getIdentifiers(String section) {
+        final Map<String, long[]> subjects = sections.get(section);
+        return subjects == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(subjects.keySet());
+    }
+
+    /**
+     * @return The top-level values of the indexed file that are not sections of subjects
+     */
+    Map<String, Object> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    /**
+     * Write a new permissions file containing every subject of the indexed file along with a set of changes.
+     * Unchanged subjects are copied over byte for byte, without being parsed. The new file is formatted like one
+     * written by the file backend's configuration loader.
+     *
+     * @param source The file this index was built from
+     * @param target The file to write
+     * @param changes Section name -> identifier -> the new data of each changed subject, or null if it was removed
+     * @throws IOException if either file could not be accessed, or the source has been modified since it was indexed
+     */
+    void write(File source, File target, Map<String, Map<String, Object>> changes) throws IOException {
+        final Set<String> sectionNames = new LinkedHashSet<>(sections.keySet());
+        sectionNames.addAll(changes.keySet());
+        try (RandomAccessFile in = new RandomAccessFile(source, "r");
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(target));
+             JsonGenerator generator = FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            checkCurrent(source);
+            generator.setPrettyPrinter(new IndentingPrettyPrinter());
+            generator.writeStartObject();
+            for (Map.Entry<String, Object> value : values.entrySet()) {
+                generator.writeFieldName(value.getKey());
+                writeValue(generator, value.getValue());
+            }
+            for (String section : sectionNames) {
+                final Map<String, long[]> existing = sections.containsKey(section) ? sections.get(section) : Collections.<String, long[]>emptyMap();
+                final Map<String, Object> changed = changes.containsKey(section) ? changes.get(section) : Collections.<String, Object>emptyMap();
+                generator.writeFieldName(section);
+                generator.writeStartObject();
+                for (Map.Entry<String, long[]> subject : existing.entrySet()) {
+                    if (changed.containsKey(subject.getKey())) {
+                        final Object data = changed.get(subject.getKey());
+                        if (data != null) {
+                            generator.writeFieldName(subject.getKey());
+                            writeValue(generator, data);
+                        }
+                    } else {
+                        generator.writeFieldName(subject.getKey());
+                        generator.writeRawValue(new String(readRange(in, subject.getValue()), UTF8));
+                    }
+                }
+                for (Map.Entry<String, Object> subject : changed.entrySet()) {
+                    if (!existing.containsKey(subject.getKey()) && subject.getValue() != null) {
+                        generator.writeFieldName(subject.getKey());
+                        writeValue(generator, subject.getValue());
+                    }
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Matches the output of the file backend's JSON loader: every entry and array element on its own line, indented
+     * by four spaces per level, with a space after each field name's colon.
+     */
+    private static final class IndentingPrettyPrinter implements PrettyPrinter {
+        private static final String INDENT = "    ";
+        private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+        private int depth;
+
+        private void newLine(JsonGenerator generator) throws IOException {
+            generator.writeRaw(LINE_SEPARATOR);
+            for (int i = 0; i < depth; ++i) {
+                generator.writeRaw(INDENT);
+            }
+        }
+
+        @Override
+        public void writeRootValueSeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(' ');
+        }
+
+        @Override
+        public void writeStartObject(JsonGenerator generator) throws IOException {
+            generator.writeRaw('{');
+            ++depth;
+        }
+
+        @Override
+        public void beforeObjectEntries(JsonGenerator generator) throws IOException {
+            newLine(generator);
+        }
+
+        @Override
+        public void writeObjectFieldValueSeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(": ");
+        }
+
+        @Override
+        public void writeObjectEntrySeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(',');
+            newLine(generator);
+        }
+
+        @Override
+        public void writeEndObject(JsonGenerator generator, int entries) throws IOException {
+            --depth;
+            if (entries > 0) {
+                newLine(generator);
+            } else {
+                generator.writeRaw(' ');
+            }
+            generator.writeRaw('}');
+        }
+
+        @Override
+        public void writeStartArray(JsonGenerator generator) throws IOException {
+            generator.writeRaw('[');
+            ++depth;
+        }
+
+        @Override
+        public void beforeArrayValues(JsonGenerator generator) throws IOException {
+            newLine(generator);
+        }
+
+        @Override
+        public void writeArrayValueSeparator(JsonGenerator generator) throws IOException {
+            generator.writeRaw(',');
+            newLine(generator);
+        }
+
+        @Override
+        public void writeEndArray(JsonGenerator generator, int values) throws IOException {
+            --depth;
+            if (values > 0) {
+                newLine(generator);
+            } else {
+                generator.writeRaw(' ');
+            }
+            generator.writeRaw(']');
+        }
+    }
+}
@@ -20,13 +20,13 @@ import com.google.common.base.Function;
 import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import ninja.leaping.configurate.objectmapping.ObjectMapper;
 import ninja.leaping.configurate.objectmapping.ObjectMappingException;
 import ninja.leaping.configurate.objectmapping.Setting;
 import ninja.leaping.configurate.objectmapping.serialize.ConfigSerializable;
+import ninja.leaping.permissionsex.data.ContextSet;
 import ninja.leaping.permissionsex.data.ImmutableOptionSubjectData;
 
 import javax.annotation.Nullable;
@@ -168,8 +168,12 @@ public class MemoryOptionSubjectData implements ImmutableOptionSubjectData {
         return new DataEntry();
     }
 
+    protected static DataEntry newEntry(Map<String, Integer> permissions, Map<String, String> options, List<String> parents, Integer defaultValue) {
+        return new DataEntry(permissions, options, parents, defaultValue);
+    }
+
     protected final MemoryOptionSubjectData newWithUpdated(Set<Entry<String, String>> key, DataEntry val) {
-        return newData(updateImmutable(contexts, immutSet(key), val));
+        return newData(updateImmutable(contexts, ContextSet.of(key), val));
     }
 
     protected MemoryOptionSubjectData newData(Map<Set<Entry<String, String>>, DataEntry> contexts) {
@@ -194,10 +198,6 @@ public class MemoryOptionSubjectData implements ImmutableOptionSubjectData {
         return res;
     }
 
-    private <E> ImmutableSet<E> immutSet(Set<E> set) {
-        return ImmutableSet.copyOf(set);
-    }
-
     @Override
     public Map<Set<Entry<String, String>>, Map<String, String>> getAllOptions() {
         return Maps.filterValues(Maps.transformValues(contexts, new Function<DataEntry, Map<String, String>>() {
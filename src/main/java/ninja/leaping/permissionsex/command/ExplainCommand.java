@@ -0,0 +1,89 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.command;
+
+import com.google.common.collect.ImmutableSet;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.data.PermissionExplanation;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
+import ninja.leaping.permissionsex.util.command.CommandContext;
+import ninja.leaping.permissionsex.util.command.CommandException;
+import ninja.leaping.permissionsex.util.command.CommandSpec;
+import ninja.leaping.permissionsex.util.command.Commander;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+
+import static ninja.leaping.permissionsex.util.Translations._;
+import static ninja.leaping.permissionsex.util.command.args.GenericArguments.string;
+
+public class ExplainCommand {
+    public static CommandSpec getExplainCommand(PermissionsEx pex) {
+        return CommandSpec.builder()
+                .setAliases("explain", "why")
+                .setDescription(_("Show where a subject's value for a permission comes from"))
+                .setArguments(string(_("permission")))
+                .setExecutor(new ExplainExecutor(pex))
+                .build();
+    }
+
+    private static class ExplainExecutor extends PermissionsExExecutor {
+        private static final String INDENT = "  ";
+
+        private ExplainExecutor(PermissionsEx pex) {
+            super(pex);
+        }
+
+        @Override
+        public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+            Map.Entry<String, String> subject = subjectOrSelf(src, args);
+            checkSubjectPermission(src, subject, "permissionsex.explain");
+            Set<Map.Entry<String, String>> contexts = ImmutableSet.copyOf(args.<Map.Entry<String, String>>getAll("context"));
+            final String permission = args.getOne("permission");
+
+            final PermissionExplanation explanation;
+            try {
+                explanation = pex.getCalculatedSubject(subject.getKey(), subject.getValue()).explainPermission(contexts, permission);
+            } catch (PermissionsLoadingException | ExecutionException e) {
+                throw new CommandException(_("Unable to calculate data for subject %s", src.fmt().subject(subject)), e);
+            }
+
+            src.msg(src.fmt().header(src.fmt().tr(_("%s for %s in %s context", src.fmt().permission(permission, explanation.getValue()),
+                    src.fmt().subject(subject), formatContexts(src, contexts)))));
+            final PermissionExplanation.Source winner = explanation.getWinner();
+            if (winner == null) {
+                src.msg(_("No values apply to this permission"));
+            } else if (winner.getNode() == null) {
+                src.msg(_("No nodes apply to this permission, so the default value of %s in %s context is used",
+                        src.fmt().subject(winner.getSubject()), formatContexts(src, winner.getContexts())));
+            }
+
+            for (PermissionExplanation.Source source : explanation.getMatches()) {
+                final TextType node = src.fmt().permission(source.getDefinition(), source.getValue());
+                final TextType description = src.fmt().tr(source.isTransient()
+                        ? _("from transient data of %s in %s context", src.fmt().subject(source.getSubject()), formatContexts(src, source.getContexts()))
+                        : _("from %s in %s context", src.fmt().subject(source.getSubject()), formatContexts(src, source.getContexts())));
+                if (source == winner) {
+                    src.msg(src.fmt().combined(INDENT, src.fmt().hl(node), " ", description, " ", src.fmt().hl(src.fmt().tr(_("(applied)")))));
+                } else {
+                    src.msg(src.fmt().combined(INDENT, node, " ", description));
+                }
+            }
+        }
+    }
+}
@@ -17,11 +17,14 @@
 package ninja.leaping.permissionsex.command;
 
 import com.google.common.base.Function;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
 import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.data.BakeMetrics;
 import ninja.leaping.permissionsex.data.SubjectCache;
+import ninja.leaping.permissionsex.data.TraceBuffer;
 import ninja.leaping.permissionsex.util.StartsWithPredicate;
 import ninja.leaping.permissionsex.util.command.CommandContext;
 import ninja.leaping.permissionsex.util.command.CommandException;
@@ -30,7 +33,13 @@ import ninja.leaping.permissionsex.util.command.CommandSpec;
 import ninja.leaping.permissionsex.util.command.Commander;
 import ninja.leaping.permissionsex.util.command.args.CommandElement;
 
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import ninja.leaping.permissionsex.util.command.ChildCommands;
 
@@ -49,6 +58,7 @@ public class PermissionsExCommands {
         final Set<CommandSpec> childrenList = ImmutableSet.<CommandSpec>builder()
                 .addAll(pex.getImplementationCommands())
                 .add(getDebugToggleCommand(pex))
+                .add(getStatsCommand(pex))
                 .build();
 
         final CommandElement children = ChildCommands.args(childrenList.toArray(new CommandSpec[childrenList.size()]));
@@ -56,6 +66,7 @@ public class PermissionsExCommands {
                                                                   PermissionsCommands.getPermissionCommand(pex),
                                                                   PermissionsCommands.getPermissionDefaultCommand(pex),
                                                                   InfoCommand.getInfoCommand(pex),
+                                                                  ExplainCommand.getExplainCommand(pex),
                                                                   ParentCommands.getParentCommand(pex));
 
         return CommandSpec.builder()
@@ -105,19 +116,127 @@ public class PermissionsExCommands {
     }
 
     private static CommandSpec getDebugToggleCommand(final PermissionsEx pex) {
+        final CommandElement children = ChildCommands.args(getDebugDumpCommand(pex), getDebugFilterCommand(pex));
         return CommandSpec.builder()
                 .setAliases("debug", "d")
                 .setDescription(_("Toggle debug mode"))
                 .setPermission("permissionsex.debug")
-                .setExecutor(new CommandExecutor() {
+                .setArguments(optional(children))
+                .setExecutor(ChildCommands.optionalExecutor(children, new CommandExecutor() {
                     @Override
                     public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
                        boolean debugEnabled = !pex.hasDebugMode();
                         pex.setDebugMode(debugEnabled);
                         src.msg(_("Debug mode enabled: %s", src.fmt().booleanVal(debugEnabled)));
                     }
+                }))
+                .build();
+    }
+
+    private static CommandSpec getDebugDumpCommand(final PermissionsEx pex) {
+        return CommandSpec.builder()
+                .setAliases("dump")
+                .setDescription(_("Show the most recent checks recorded while in debug mode"))
+                .setArguments(optional(integer(_("count")), 20))
+                .setExecutor(new CommandExecutor() {
+                    @Override
+                    public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+                        final List<TraceBuffer.Event> events = pex.getTraceBuffer().getRecent(args.<Integer>getOne("count"));
+                        if (events.isEmpty()) {
+                            src.msg(_("No checks have been recorded. Is debug mode enabled?"));
+                            return;
+                        }
+                        final DateFormat timeFormat = new SimpleDateFormat("HH:mm:ss.SSS");
+                        for (TraceBuffer.Event event : events) {
+                            final Object result = event.getResult();
+                            final TextType description;
+                            if (event.getKind() == TraceBuffer.Kind.PERMISSION && result instanceof Integer) {
+                                description = src.fmt().permission(event.getNode(), (Integer) result);
+                            } else if (event.getKind() == TraceBuffer.Kind.OPTION) {
+                                description = src.fmt().option(event.getNode(), String.valueOf(result));
+                            } else {
+                                description = src.fmt().combined(event.getNode() == null ? "" : event.getNode() + " ", String.valueOf(result));
+                            }
+                            src.msg(src.fmt().combined(timeFormat.format(new Date(event.getTime())), " ", src.fmt().subject(event.getSubject()),
+                                    " ", event.getKind().name().toLowerCase(), " ", event.getContexts(), ": ", description));
+                        }
+                    }
                 })
                 .build();
     }
 
+    private static CommandSpec getDebugFilterCommand(final PermissionsEx pex) {
+        return CommandSpec.builder()
+                .setAliases("filter")
+                .setDescription(_("Restrict the checks recorded in debug mode to a subject or permission prefix"))
+                .setArguments(optional(firstParsing(
+                        literal(_("clear"), "clear"),
+                        seq(literal(_("node"), "node"), string(_("prefix"))),
+                        subject(_("subject"), pex))))
+                .setExecutor(new CommandExecutor() {
+                    @Override
+                    public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+                        final TraceBuffer traces = pex.getTraceBuffer();
+                        if (args.hasAny("clear")) {
+                            traces.setSubjectFilter(null);
+                            traces.setNodeFilter(null);
+                        } else if (args.hasAny("prefix")) {
+                            traces.setNodeFilter(args.<String>getOne("prefix"));
+                        } else if (args.hasAny("subject")) {
+                            traces.setSubjectFilter(args.<Map.Entry<String, String>>getOne("subject"));
+                        }
+                        src.msg(_("Recording checks of subject %s and nodes starting with %s",
+                                traces.getSubjectFilter() == null ? "*" : src.fmt().subject(traces.getSubjectFilter()),
+                                traces.getNodeFilter() == null ? "*" : traces.getNodeFilter()));
+                    }
+                })
+                .build();
+    }
+
+    private static CommandSpec getStatsCommand(final PermissionsEx pex) {
+        return CommandSpec.builder()
+                .setAliases("stats")
+                .setDescription(_("Show statistics about permissions calculation"))
+                .setPermission("permissionsex.stats")
+                .setExecutor(new CommandExecutor() {
+                    @Override
+                    public <TextType> void execute(Commander<TextType> src, CommandContext args) throws CommandException {
+                        final BakeMetrics metrics = pex.getBakeMetrics();
+                        src.msg(src.fmt().header(src.fmt().tr(_("PermissionsEx statistics"))));
+                        src.msg(_("Bakes: %s (%s slow), mean %sus, max %sus", metrics.getBakeCount(), metrics.getSlowBakeCount(),
+                                metrics.getMeanBakeTime(TimeUnit.MICROSECONDS), metrics.getMaxBakeTime(TimeUnit.MICROSECONDS)));
+                        src.msg(_("Subjects visited: %s, context subsets probed: %s, circular inheritance found: %s",
+                                metrics.getVisitedSubjectCount(), metrics.getContextSubsetCount(), metrics.getCircularInheritanceCount()));
+                        src.msg(_("Bake times: %s", formatHistogram(metrics)));
+
+                        final CacheStats subjects = pex.getSubjectCacheStats(), calculated = pex.getCalculatedSubjectCacheStats(),
+                                baked = pex.getBakedDataCacheStats(), pool = pex.getBakedDataPool().getStats();
+                        src.msg(_("Subject data cache: %s hit rate, %s requests, %s evictions",
+                                formatRate(subjects.hitRate()), subjects.requestCount(), subjects.evictionCount()));
+                        src.msg(_("Calculated subject cache: %s hit rate, %s requests, %s evictions",
+                                formatRate(calculated.hitRate()), calculated.requestCount(), calculated.evictionCount()));
+                        src.msg(_("Baked data cache: %s hit rate, %s requests, %s evictions",
+                                formatRate(baked.hitRate()), baked.requestCount(), baked.evictionCount()));
+                        src.msg(_("Baked data pool: %s hit rate, %s distinct entries",
+                                formatRate(pool.hitRate()), pex.getBakedDataPool().size()));
+                    }
+                })
+                .build();
+    }
+
+    private static String formatRate(double rate) {
+        return String.format("%.1f%%", rate * 100);
+    }
+
+    private static String formatHistogram(BakeMetrics metrics) {
+        final long[] bounds = metrics.getHistogramBounds(), counts = metrics.getHistogram();
+        final StringBuilder ret = new StringBuilder();
+        for (int i = 0; i < counts.length; ++i) {
+            if (i > 0) {
+                ret.append(", ");
+            }
+            ret.append(i < bounds.length ? "<" + bounds[i] : ">=" + bounds[bounds.length - 1]).append("us: ").append(counts[i]);
+        }
+        return ret.toString();
+    }
 }
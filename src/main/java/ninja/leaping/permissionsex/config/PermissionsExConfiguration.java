@@ -50,6 +50,12 @@ public class PermissionsExConfiguration {
     @Setting("default-backend") private String defaultBackend;
     @Setting private boolean debug;
     @Setting("server-tags") private List<String> serverTags;
+    @Setting("subject-cache-size") private int subjectCacheSize = 512;
+    @Setting("calculated-subject-cache-size") private int calculatedSubjectCacheSize = 512;
+    @Setting("baked-contexts-per-subject") private int bakedContextsPerSubject = 5;
+    @Setting("baked-data-max-weight") private long bakedDataMaxWeight = 0;
+    @Setting("slow-bake-threshold") private long slowBakeThreshold = 100;
+    @Setting("warm-up-threads") private int warmUpThreads = 0;
 
     protected PermissionsExConfiguration() {}
 
@@ -69,6 +75,55 @@ public class PermissionsExConfiguration {
         return Collections.unmodifiableList(serverTags);
     }
 
+    /**
+     * @return The maximum number of subjects of each type to keep loaded from a data store
+     */
+    public int getSubjectCacheSize() {
+        return subjectCacheSize;
+    }
+
+    /**
+     * @return The maximum number of subjects to keep calculated data for
+     */
+    public int getCalculatedSubjectCacheSize() {
+        return calculatedSubjectCacheSize;
+    }
+
+    /**
+     * @return The maximum number of context sets to keep baked data for in each calculated subject
+     */
+    public int getBakedContextsPerSubject() {
+        return bakedContextsPerSubject;
+    }
+
+    /**
+     * Get the maximum approximate size in bytes of the baked data kept for each calculated subject.
+     * When this is positive, it replaces the limit on the number of baked context sets.
+     *
+     * @return The maximum weight, or 0 if baked data is limited by count
+     */
+    public long getBakedDataMaxWeight() {
+        return bakedDataMaxWeight;
+    }
+
+    /**
+     * Get the time in milliseconds above which a single bake is logged along with the inheritance it traversed.
+     *
+     * @return The slow bake threshold, or 0 if slow bakes are not logged
+     */
+    public long getSlowBakeThreshold() {
+        return slowBakeThreshold;
+    }
+
+    /**
+     * Get the number of threads used to load and bake subjects in parallel when PermissionsEx is (re)loaded.
+     *
+     * @return The number of warm-up threads, which is the number of available processors unless configured otherwise
+     */
+    public int getWarmUpThreads() {
+        return warmUpThreads > 0 ? warmUpThreads : Runtime.getRuntime().availableProcessors();
+    }
+
     public void validate() throws PEBKACException {
         if (backends.isEmpty()) {
             throw new PEBKACException(_("No backends defined!"));
@@ -80,5 +135,18 @@ public class PermissionsExConfiguration {
         if (!backends.containsKey(defaultBackend)) {
             throw new PEBKACException(_("Default backend % is not an available backend! Choices are: %s", defaultBackend, backends.keySet()));
         }
+
+        if (subjectCacheSize <= 0 || calculatedSubjectCacheSize <= 0 || bakedContextsPerSubject <= 0) {
+            throw new PEBKACException(_("Cache sizes must be positive!"));
+        }
+        if (bakedDataMaxWeight < 0) {
+            throw new PEBKACException(_("The maximum baked data weight must not be negative!"));
+        }
+        if (slowBakeThreshold < 0) {
+            throw new PEBKACException(_("The slow bake threshold must not be negative!"));
+        }
+        if (warmUpThreads < 0) {
+            throw new PEBKACException(_("The number of warm-up threads must not be negative!"));
+        }
     }
 }
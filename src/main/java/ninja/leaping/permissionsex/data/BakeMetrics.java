@@ -0,0 +1,144 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters describing the cost of the bakes performed by {@link SubjectDataBaker}.
+ * All counters are updated without locking, so a set of values read together may be from slightly different moments.
+ */
+public class BakeMetrics {
+    /**
+     * Upper bounds of the bake time histogram buckets, in microseconds. A final bucket holds any longer bakes.
+     */
+    private static final long[] BUCKET_BOUNDS = {100, 250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000};
+
+    private final AtomicLong bakes = new AtomicLong(),
+            totalNanos = new AtomicLong(),
+            maxNanos = new AtomicLong(),
+            visitedSubjects = new AtomicLong(),
+            contextSubsets = new AtomicLong(),
+            circularInheritance = new AtomicLong(),
+            slowBakes = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    /**
+     * Record a completed bake.
+     *
+     * @param nanos The time taken by the bake
+     * @param visited The number of subjects in the baked inheritance
+     * @param subsets The number of context subsets the baked subject's data was probed for
+     * @param slow Whether the bake exceeded the slow bake threshold
+     */
+    void recordBake(long nanos, int visited, int subsets, boolean slow) {
+        bakes.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        visitedSubjects.addAndGet(visited);
+        contextSubsets.addAndGet(subsets);
+        if (slow) {
+            slowBakes.incrementAndGet();
+        }
+
+        long max;
+        do {
+            max = maxNanos.get();
+        } while (nanos > max && !maxNanos.compareAndSet(max, nanos));
+
+        final long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && micros >= BUCKET_BOUNDS[bucket]) {
+            ++bucket;
+        }
+        histogram.incrementAndGet(bucket);
+    }
+
+    void recordCircularInheritance() {
+        circularInheritance.incrementAndGet();
+    }
+
+    public long getBakeCount() {
+        return bakes.get();
+    }
+
+    public long getTotalBakeTime(TimeUnit unit) {
+        return unit.convert(totalNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    public long getMeanBakeTime(TimeUnit unit) {
+        final long count = bakes.get();
+        return count == 0 ? 0 : unit.convert(totalNanos.get() / count, TimeUnit.NANOSECONDS);
+    }
+
+    public long getMaxBakeTime(TimeUnit unit) {
+        return unit.convert(maxNanos.get(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return The total number of subjects included in the inheritance of every bake
+     */
+    public long getVisitedSubjectCount() {
+        return visitedSubjects.get();
+    }
+
+    /**
+     * @return The total number of context subsets probed while calculating inheritance
+     */
+    public long getContextSubsetCount() {
+        return contextSubsets.get();
+    }
+
+    /**
+     * @return The number of times potential circular inheritance has been found
+     */
+    public long getCircularInheritanceCount() {
+        return circularInheritance.get();
+    }
+
+    /**
+     * @return The number of bakes that exceeded the configured slow bake threshold
+     */
+    public long getSlowBakeCount() {
+        return slowBakes.get();
+    }
+
+    /**
+     * Get the upper bounds of each bake time histogram bucket, in microseconds. The histogram has one more bucket than
+     * there are bounds, for bakes longer than the last bound.
+     *
+     * @return The histogram bucket bounds
+     */
+    public long[] getHistogramBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * Get the number of bakes that have fallen into each bucket of the bake time histogram.
+     *
+     * @return The bucket counts
+     * @see #getHistogramBounds()
+     */
+    public long[] getHistogram() {
+        final long[] ret = new long[histogram.length()];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = histogram.get(i);
+        }
+        return ret;
+    }
+}
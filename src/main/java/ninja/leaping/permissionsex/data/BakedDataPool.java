@@ -0,0 +1,139 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.permissionsex.util.NodeTree;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of baked data keyed by the merged data it was built from. Subjects whose inheritance folds down to the same
+ * permissions, parents and options in the same contexts -- typically every user with no data of their own in a rank --
+ * share a single {@link BakedSubjectData}, and only the first of them pays for building its permissions tree.
+ *
+ * Baked data is weakly referenced, so entries only live as long as some subject's cache holds on to them.
+ */
+public class BakedDataPool {
+    private final Cache<Key, BakedSubjectData> pool = CacheBuilder.newBuilder()
+            .weakValues()
+            .recordStats()
+            .build();
+
+    /**
+     * Get baked data for the given merged data, reusing existing baked data with identical contents if available.
+     *
+     * @param contexts The contexts the data was baked for
+     * @param permissions The merged permissions
+     * @param defaultValue The merged default value
+     * @param parents The merged parents
+     * @param options The merged options
+     * @return The baked data
+     */
+    BakedSubjectData get(ContextSet contexts, Map<String, Integer> permissions, int defaultValue, List<Map.Entry<String, String>> parents, Map<String, String> options) {
+        final Key key = new Key(contexts, permissions, defaultValue, ImmutableList.copyOf(parents), ImmutableMap.copyOf(options));
+        BakedSubjectData ret = pool.getIfPresent(key);
+        if (ret == null) {
+            ret = new BakedSubjectData(contexts, NodeTree.of(permissions, defaultValue).compile(), key.parents, key.options);
+            final BakedSubjectData existing = pool.asMap().putIfAbsent(key, ret);
+            if (existing != null) {
+                ret = existing;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get statistics for this pool. Hits are bakes that were able to reuse existing data.
+     *
+     * @return The pool statistics
+     */
+    public CacheStats getStats() {
+        return pool.stats();
+    }
+
+    /**
+     * Get the number of distinct baked data currently pooled.
+     *
+     * @return The number of pooled entries
+     */
+    public long size() {
+        return pool.size();
+    }
+
+    /**
+     * The merged inputs of a bake. Permissions are stored as sorted arrays rather than a map, since node strings are
+     * shared with the subject data they came from and only the arrays themselves are retained per key.
+     */
+    private static final class Key {
+        private final ContextSet contexts;
+        private final String[] nodes;
+        private final int[] values;
+        private final int defaultValue;
+        private final ImmutableList<Map.Entry<String, String>> parents;
+        private final ImmutableMap<String, String> options;
+        private final int hashCode;
+
+        private Key(ContextSet contexts, Map<String, Integer> permissions, int defaultValue, ImmutableList<Map.Entry<String, String>> parents, ImmutableMap<String, String> options) {
+            this.contexts = contexts;
+            this.nodes = permissions.keySet().toArray(new String[permissions.size()]);
+            Arrays.sort(this.nodes);
+            this.values = new int[this.nodes.length];
+            for (int i = 0; i < this.nodes.length; ++i) {
+                this.values[i] = permissions.get(this.nodes[i]);
+            }
+            this.defaultValue = defaultValue;
+            this.parents = parents;
+            this.options = options;
+
+            int hash = contexts.hashCode();
+            hash = 31 * hash + Arrays.hashCode(this.nodes);
+            hash = 31 * hash + Arrays.hashCode(this.values);
+            hash = 31 * hash + defaultValue;
+            hash = 31 * hash + parents.hashCode();
+            hash = 31 * hash + options.hashCode();
+            this.hashCode = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key that = (Key) o;
+
+            return hashCode == that.hashCode
+                    && defaultValue == that.defaultValue
+                    && contexts.equals(that.contexts)
+                    && Arrays.equals(values, that.values)
+                    && Arrays.equals(nodes, that.nodes)
+                    && parents.equals(that.parents)
+                    && options.equals(that.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
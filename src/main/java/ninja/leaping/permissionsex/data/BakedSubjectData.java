@@ -17,6 +17,7 @@
 package ninja.leaping.permissionsex.data;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
 import ninja.leaping.permissionsex.util.NodeTree;
 
 import java.util.List;
@@ -31,6 +32,7 @@ class BakedSubjectData {
     private final NodeTree permissions;
     private final List<Map.Entry<String, String>> parents;
     private final Map<String, String> options;
+    private final PermissionValueCache permissionCache = new PermissionValueCache(PermissionValueCache.DEFAULT_SIZE);
 
     public BakedSubjectData(Set<Map.Entry<String, String>> applicableContexts, NodeTree permissions, List<Map.Entry<String, String>> parents, Map<String, String> options) {
         Preconditions.checkNotNull(applicableContexts, "applicableContexts");
@@ -47,6 +49,33 @@ class BakedSubjectData {
         return permissions;
     }
 
+    /**
+     * Get the value of a single permission, memoized for this baked data.
+     *
+     * @param permission The permission to check
+     * @return The value of the permission
+     */
+    public int getPermission(String permission) {
+        return permissionCache.get(permission, permissions);
+    }
+
+    public CacheStats getPermissionCacheStats() {
+        return permissionCache.getStats();
+    }
+
+    /**
+     * Estimate the number of bytes retained by this baked data, for weighing cache entries.
+     *
+     * @return The approximate retained size in bytes
+     */
+    long getApproximateSize() {
+        long size = 64 + permissions.getApproximateSize() + permissionCache.getApproximateSize() + 16 * parents.size();
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            size += 32 + 80 + 2 * (option.getKey().length() + option.getValue().length());
+        }
+        return size;
+    }
+
     public List<Map.Entry<String, String>> getParents() {
         return parents;
     }
@@ -17,19 +17,26 @@
 package ninja.leaping.permissionsex.data;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.Weigher;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.config.PermissionsExConfiguration;
 import ninja.leaping.permissionsex.util.NodeTree;
 
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * This is a holder that maintains the current subject data state
@@ -38,18 +45,52 @@ public class CalculatedSubject implements Caching {
     private final Map.Entry<String, String> identifier;
     private final PermissionsEx pex;
 
-    private final LoadingCache<Set<Map.Entry<String, String>>, BakedSubjectData> data = CacheBuilder.newBuilder().maximumSize(5)
-            .build(new CacheLoader<Set<Map.Entry<String, String>>, BakedSubjectData>() {
-        @Override
-        public BakedSubjectData load(Set<Map.Entry<String, String>> contexts) throws Exception {
-            return SubjectDataBaker.bake(CalculatedSubject.this, contexts);
-        }
-    });
+    private final LoadingCache<Set<Map.Entry<String, String>>, BakedSubjectData> data;
+    private final Cache<Set<Map.Entry<String, String>>, SubjectDataBaker.Inheritance> inheritance;
+    /**
+     * The most recently used baked data, readable without going through the cache
+     */
+    private final AtomicReference<Snapshot> snapshot = new AtomicReference<>();
+    /**
+     * Incremented on every invalidation, so a snapshot loaded before an invalidation is never published
+     */
+    private final AtomicLong epoch = new AtomicLong();
+    /**
+     * The listeners for the data of every subject this subject's bakes have depended on. The {@link DependencyIndex}
+     * only holds them weakly, so they stay registered as long as this subject is in use.
+     */
+    private final Set<Caching> dependencies = Collections.newSetFromMap(new ConcurrentHashMap<Caching, Boolean>());
 
     public CalculatedSubject(Map.Entry<String, String> identifier, PermissionsEx pex) {
         Preconditions.checkNotNull(identifier, pex);
         this.identifier = identifier;
         this.pex = pex;
+
+        final PermissionsExConfiguration config = pex.getConfig();
+        final CacheLoader<Set<Map.Entry<String, String>>, BakedSubjectData> loader = new CacheLoader<Set<Map.Entry<String, String>>, BakedSubjectData>() {
+            @Override
+            public BakedSubjectData load(Set<Map.Entry<String, String>> contexts) throws Exception {
+                return SubjectDataBaker.bake(CalculatedSubject.this, contexts);
+            }
+        };
+        if (config.getBakedDataMaxWeight() > 0) {
+            this.data = CacheBuilder.newBuilder()
+                    .maximumWeight(config.getBakedDataMaxWeight())
+                    .weigher(new Weigher<Set<Map.Entry<String, String>>, BakedSubjectData>() {
+                        @Override
+                        public int weigh(Set<Map.Entry<String, String>> contexts, BakedSubjectData data) {
+                            return (int) Math.min(data.getApproximateSize(), Integer.MAX_VALUE);
+                        }
+                    })
+                    .recordStats()
+                    .build(loader);
+        } else {
+            this.data = CacheBuilder.newBuilder()
+                    .maximumSize(config.getBakedContextsPerSubject())
+                    .recordStats()
+                    .build(loader);
+        }
+        this.inheritance = CacheBuilder.newBuilder().maximumSize(config.getBakedContextsPerSubject()).build();
     }
 
     public Map.Entry<String, String> getIdentifier() {
@@ -60,19 +101,155 @@ public class CalculatedSubject implements Caching {
         return pex;
     }
 
+    /**
+     * Calculate this subject's data in the given contexts if it is not already cached.
+     *
+     * @param contexts The contexts to calculate data for
+     * @throws ExecutionException if an error occurs while calculating data
+     */
+    public void bake(Set<Map.Entry<String, String>> contexts) throws ExecutionException {
+        Preconditions.checkNotNull(contexts, "contexts");
+        getBaked(contexts);
+    }
+
+    /**
+     * Get baked data for the given contexts. If they are the same contexts as the previous lookup, this is a single
+     * volatile read. Otherwise, the data is loaded from the cache and published as the new snapshot.
+     * Data loaded while this subject was invalidated may be stale, and is removed from the cache again.
+     *
+     * @param contexts The contexts to get data for
+     * @return The baked data
+     * @throws ExecutionException if an error occurs while baking data
+     */
+    private BakedSubjectData getBaked(Set<Map.Entry<String, String>> contexts) throws ExecutionException {
+        final Snapshot current = this.snapshot.get();
+        if (current != null && current.contexts.equals(contexts)) {
+            return current.data;
+        }
+
+        final long startEpoch = this.epoch.get();
+        final ContextSet key = ContextSet.of(contexts);
+        final BakedSubjectData ret = data.get(key);
+        if (this.epoch.get() != startEpoch) { // The cache may have stored the value after it was invalidated
+            data.asMap().remove(key, ret);
+        } else {
+            final Snapshot published = new Snapshot(key, ret);
+            this.snapshot.set(published);
+            if (this.epoch.get() != startEpoch) { // Invalidated while publishing
+                this.snapshot.compareAndSet(published, null);
+            }
+        }
+        return ret;
+    }
+
     public NodeTree getPermissions(Set<Map.Entry<String, String>> contexts) {
         Preconditions.checkNotNull(contexts, "contexts");
         try {
-            return data.get(contexts).getPermissions();
+            return getBaked(contexts).getPermissions();
         } catch (ExecutionException e) {
             return NodeTree.of(Collections.<String, Integer>emptyMap());
         }
     }
 
+    /**
+     * Get the value of a single permission. Results are memoized on the baked data for the given contexts,
+     * so repeated checks of the same permission only perform a single hash probe.
+     *
+     * @param contexts The contexts to check in
+     * @param permission The permission to check
+     * @return The value of the permission
+     */
+    public int getPermission(Set<Map.Entry<String, String>> contexts, String permission) {
+        Preconditions.checkNotNull(contexts, "contexts");
+        Preconditions.checkNotNull(permission, "permission");
+        try {
+            return getBaked(contexts).getPermission(permission);
+        } catch (ExecutionException e) {
+            return NodeTree.PERMISSION_UNDEFINED;
+        }
+    }
+
+    /**
+     * Get the values of several permissions at once. All values are read from the same baked data,
+     * with a single traversal of its permissions tree for all the given permissions.
+     *
+     * @param contexts The contexts to check in
+     * @param permissions The permissions to check
+     * @return The values of the permissions, in the same order as the permissions were given
+     */
+    public int[] getPermissions(Set<Map.Entry<String, String>> contexts, List<String> permissions) {
+        Preconditions.checkNotNull(contexts, "contexts");
+        Preconditions.checkNotNull(permissions, "permissions");
+        try {
+            return getBaked(contexts).getPermissions().getAll(permissions);
+        } catch (ExecutionException e) {
+            return new int[permissions.size()];
+        }
+    }
+
+    /**
+     * Get the permissions at or below a certain node that resolve to a positive value. Only nodes defined in the
+     * baked permissions tree are considered, and the rest of the tree is not visited.
+     *
+     * @param contexts The contexts to check in
+     * @param prefix The node to search below
+     * @return The granted nodes under the prefix
+     */
+    public List<String> getGrantedPermissions(Set<Map.Entry<String, String>> contexts, String prefix) {
+        Preconditions.checkNotNull(contexts, "contexts");
+        Preconditions.checkNotNull(prefix, "prefix");
+        final NodeTree permissions = getPermissions(contexts);
+        final ImmutableList.Builder<String> ret = ImmutableList.builder();
+        for (Map.Entry<String, Integer> ent : permissions.entriesUnder(prefix)) {
+            if (permissions.get(ent.getKey()) > 0) {
+                ret.add(ent.getKey());
+            }
+        }
+        return ret.build();
+    }
+
+    /**
+     * Resolve a permission along with the source of each value affecting it. This is calculated from scratch
+     * rather than from baked data, so it should only be used for diagnostics.
+     *
+     * @param contexts The contexts to check in
+     * @param permission The permission to explain
+     * @return The explanation
+     * @throws ExecutionException if the data of any subject in this subject's inheritance could not be loaded
+     */
+    public PermissionExplanation explainPermission(Set<Map.Entry<String, String>> contexts, String permission) throws ExecutionException {
+        Preconditions.checkNotNull(contexts, "contexts");
+        Preconditions.checkNotNull(permission, "permission");
+        return SubjectDataBaker.explain(this, contexts, permission);
+    }
+
+    /**
+     * Get statistics for this subject's cache of baked data, including evictions and time spent baking.
+     *
+     * @return The baked data cache statistics
+     */
+    public CacheStats getBakeCacheStats() {
+        return data.stats();
+    }
+
+    /**
+     * Get the combined statistics of the permission memos for every currently baked context set.
+     * Statistics are reset whenever baked data is invalidated.
+     *
+     * @return The permission memo statistics
+     */
+    public CacheStats getPermissionCacheStats() {
+        CacheStats ret = new CacheStats(0, 0, 0, 0, 0, 0);
+        for (BakedSubjectData baked : data.asMap().values()) {
+            ret = ret.plus(baked.getPermissionCacheStats());
+        }
+        return ret;
+    }
+
     public Map<String, String> getOptions(Set<Map.Entry<String, String>> contexts) {
         Preconditions.checkNotNull(contexts, "contexts");
         try {
-            return data.get(contexts).getOptions();
+            return getBaked(contexts).getOptions();
         } catch (ExecutionException e) {
             return ImmutableMap.of();
         }
@@ -81,7 +258,7 @@ public class CalculatedSubject implements Caching {
     public List<Map.Entry<String, String>> getParents(Set<Map.Entry<String, String>> contexts) {
         Preconditions.checkNotNull(contexts, "contexts");
         try {
-            return data.get(contexts).getParents();
+            return getBaked(contexts).getParents();
         } catch (ExecutionException e) {
             return ImmutableList.of();
         }
@@ -91,16 +268,54 @@ public class CalculatedSubject implements Caching {
         return data.asMap().keySet();
     }
 
+    SubjectDataBaker.Inheritance getCachedInheritance(Set<Map.Entry<String, String>> contexts) {
+        return inheritance.getIfPresent(contexts);
+    }
+
+    void cacheInheritance(Set<Map.Entry<String, String>> contexts, SubjectDataBaker.Inheritance value) {
+        inheritance.put(contexts, value);
+    }
+
+    void uncacheInheritance(Set<Map.Entry<String, String>> contexts, SubjectDataBaker.Inheritance value) {
+        inheritance.asMap().remove(contexts, value);
+    }
+
+    void retainDependency(Caching listener) {
+        dependencies.add(listener);
+    }
+
+    /**
+     * Invalidate baked data for specific context sets. Called by the {@link DependencyIndex} when data this subject
+     * inherits from has changed.
+     *
+     * @param contexts The context sets to invalidate
+     */
+    void invalidate(Iterable<Set<Map.Entry<String, String>>> contexts) {
+        data.invalidateAll(contexts);
+        clearSnapshot();
+        inheritance.invalidateAll(contexts);
+    }
+
     @Override
     public void clearCache(ImmutableOptionSubjectData newData) {
         data.invalidateAll();
-        for (CalculatedSubject subject : pex.getActiveCalculatedSubjects()) {
-            for (Set<Map.Entry<String, String>> ent : subject.getActiveContexts()) {
-                if (subject.getParents(ent).contains(this.identifier)) {
-                    subject.data.invalidateAll();
-                    break;
-                }
-            }
+        clearSnapshot();
+        inheritance.invalidateAll();
+        pex.getDependencyIndex().invalidate(this.identifier);
+    }
+
+    private void clearSnapshot() {
+        this.epoch.incrementAndGet();
+        this.snapshot.set(null);
+    }
+
+    private static class Snapshot {
+        private final ContextSet contexts;
+        private final BakedSubjectData data;
+
+        private Snapshot(ContextSet contexts, BakedSubjectData data) {
+            this.contexts = contexts;
+            this.data = data;
         }
     }
 }
@@ -0,0 +1,101 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Maps;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A canonical, immutable set of contexts.
+ * Instances are interned, so equal context sets obtained through {@link #of(Set)} are usually the same object.
+ * The hash code is calculated once, and comparing two interned context sets only has to compare references.
+ */
+public final class ContextSet extends AbstractSet<Map.Entry<String, String>> {
+    private static final Interner<ContextSet> INTERNER = Interners.newWeakInterner();
+    public static final ContextSet EMPTY = INTERNER.intern(new ContextSet(ImmutableSet.<Map.Entry<String, String>>of()));
+
+    private final ImmutableSet<Map.Entry<String, String>> contexts;
+    private final int hashCode;
+
+    private ContextSet(ImmutableSet<Map.Entry<String, String>> contexts) {
+        this.contexts = contexts;
+        this.hashCode = contexts.hashCode();
+    }
+
+    /**
+     * Get the canonical context set equal to the given set of contexts.
+     * Contexts are copied into plain immutable entries, so implementation-specific context types are not retained.
+     *
+     * @param contexts The contexts to include
+     * @return The canonical context set
+     */
+    public static ContextSet of(Set<? extends Map.Entry<String, String>> contexts) {
+        Preconditions.checkNotNull(contexts, "contexts");
+        if (contexts instanceof ContextSet) {
+            return (ContextSet) contexts;
+        }
+        if (contexts.isEmpty()) {
+            return EMPTY;
+        }
+
+        final ImmutableSet.Builder<Map.Entry<String, String>> build = ImmutableSet.builder();
+        for (Map.Entry<String, String> context : contexts) {
+            build.add(Maps.immutableEntry(context.getKey(), context.getValue()));
+        }
+        return INTERNER.intern(new ContextSet(build.build()));
+    }
+
+    @Override
+    public Iterator<Map.Entry<String, String>> iterator() {
+        return contexts.iterator();
+    }
+
+    @Override
+    public int size() {
+        return contexts.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return contexts.contains(o);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (o == this) {
+            return true;
+        }
+        if (o instanceof ContextSet) {
+            final ContextSet other = (ContextSet) o;
+            return hashCode == other.hashCode && contexts.equals(other.contexts);
+        }
+        return super.equals(o);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.MapMaker;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A reverse index from subjects to the baked data that was calculated using their data.
+ * Entries are added by {@link SubjectDataBaker} for every subject visited during a bake, so the dependents of a subject
+ * include its transitive children. When a subject's data changes, only those dependents are invalidated,
+ * and only in the context sets they were baked for.
+ *
+ * Each subject's entry is also the listener registered for changes to its data. Entries are weakly referenced here and
+ * retained by the {@link CalculatedSubject}s depending on them, so subjects nothing depends on any more are dropped.
+ */
+public class DependencyIndex {
+    private final ConcurrentMap<Map.Entry<String, String>, Dependents> dependents = new MapMaker().weakValues().makeMap();
+    /**
+     * Incremented on every invalidation, so bakes that read data before their dependencies were recorded can tell
+     * whether that data may have changed in the meantime
+     */
+    private final AtomicLong changes = new AtomicLong();
+
+    private Dependents getDependents(Map.Entry<String, String> subject) {
+        Dependents ret = dependents.get(subject);
+        if (ret == null) {
+            ret = new Dependents(subject);
+            Dependents existing = dependents.putIfAbsent(subject, ret);
+            if (existing != null) {
+                ret = existing;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Get the listener that should be registered for changes to the data of a certain subject.
+     * The listener must be passed to {@link #addDependency(Dependents, CalculatedSubject, Set)} for every bake using
+     * the subject's data, which keeps it registered for as long as the dependent subject is.
+     *
+     * @param subject The subject whose data is being read
+     * @return The listener to register
+     */
+    Dependents getListener(Map.Entry<String, String> subject) {
+        Preconditions.checkNotNull(subject, "subject");
+        return getDependents(subject);
+    }
+
+    /**
+     * Get the number of invalidations so far. A bake reading this before it reads any data, and again after
+     * recording its dependencies, knows that none of the data it read has changed if both counts are equal.
+     *
+     * @return The current change count
+     */
+    long getChangeCount() {
+        return changes.get();
+    }
+
+    /**
+     * Record that baked data for {@code dependent} in {@code contexts} was calculated using the data of a subject.
+     *
+     * @param subject The listener returned by {@link #getListener(Map.Entry)} for the subject visited while baking
+     * @param dependent The subject whose data was baked
+     * @param contexts The context set that was baked
+     */
+    void addDependency(Dependents subject, CalculatedSubject dependent, Set<Map.Entry<String, String>> contexts) {
+        Preconditions.checkNotNull(subject, "subject");
+        Preconditions.checkNotNull(dependent, "dependent");
+        Preconditions.checkNotNull(contexts, "contexts");
+        dependent.retainDependency(subject);
+        final ConcurrentMap<CalculatedSubject, Set<Set<Map.Entry<String, String>>>> bakes = subject.bakes;
+        Set<Set<Map.Entry<String, String>>> contextSets = bakes.get(dependent);
+        if (contextSets == null) {
+            contextSets = Collections.newSetFromMap(new ConcurrentHashMap<Set<Map.Entry<String, String>>, Boolean>());
+            Set<Set<Map.Entry<String, String>>> existing = bakes.putIfAbsent(dependent, contextSets);
+            if (existing != null) {
+                contextSets = existing;
+            }
+        }
+        contextSets.add(contexts);
+    }
+
+    /**
+     * Invalidate all baked data that depends on the given subject.
+     *
+     * @param subject The subject that has changed
+     */
+    public void invalidate(Map.Entry<String, String> subject) {
+        Preconditions.checkNotNull(subject, "subject");
+        changes.incrementAndGet();
+        final Dependents subjectDependents = dependents.get(subject);
+        if (subjectDependents == null) {
+            return;
+        }
+
+        for (CalculatedSubject dependent : subjectDependents.bakes.keySet()) {
+            final Set<Set<Map.Entry<String, String>>> contextSets = subjectDependents.bakes.remove(dependent);
+            if (contextSets != null) {
+                dependent.invalidate(contextSets);
+            }
+        }
+    }
+
+    final class Dependents implements Caching {
+        private final Map.Entry<String, String> subject;
+        /**
+         * Calculated subjects are weakly referenced, so subjects evicted from the calculated subject cache are dropped
+         */
+        private final ConcurrentMap<CalculatedSubject, Set<Set<Map.Entry<String, String>>>> bakes = new MapMaker().weakKeys().makeMap();
+
+        private Dependents(Map.Entry<String, String> subject) {
+            this.subject = subject;
+        }
+
+        @Override
+        public void clearCache(ImmutableOptionSubjectData newData) {
+            invalidate(subject);
+        }
+    }
+}
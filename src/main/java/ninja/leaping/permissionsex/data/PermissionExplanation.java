@@ -0,0 +1,195 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ImmutableList;
+import ninja.leaping.permissionsex.util.NodeTree;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * The resolution of a single permission, along with where each baked node affecting it came from
+ */
+public class PermissionExplanation {
+    private static final Pattern SPLIT_REGEX = Pattern.compile("\\.");
+    private final String permission;
+    private final int value;
+    private final List<Source> matches;
+    private final Source winner;
+
+    PermissionExplanation(String permission, int value, Collection<Source> sources, @Nullable Source defaultSource) {
+        this.permission = permission;
+        this.value = value;
+
+        final String[] parts = SPLIT_REGEX.split(permission.toLowerCase());
+        final List<Source> matches = new ArrayList<>();
+        for (Source source : sources) {
+            if (source.matches(parts)) {
+                matches.add(source);
+            }
+        }
+        Collections.sort(matches, new Comparator<Source>() {
+            @Override
+            public int compare(Source a, Source b) {
+                if (a.depth != b.depth) {
+                    return a.depth - b.depth;
+                }
+                if (a.wildcards != b.wildcards) {
+                    return b.wildcards - a.wildcards;
+                }
+                return a.node.compareTo(b.node);
+            }
+        });
+        this.matches = ImmutableList.copyOf(matches);
+
+        Source winner = null;
+        for (int i = matches.size() - 1; i >= 0; --i) {
+            if (matches.get(i).value == value) {
+                winner = matches.get(i);
+                break;
+            }
+        }
+        if (winner == null && value != NodeTree.PERMISSION_UNDEFINED) {
+            winner = defaultSource;
+        }
+        this.winner = winner;
+    }
+
+    public String getPermission() {
+        return permission;
+    }
+
+    /**
+     * @return The resolved value of the permission
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * Get every baked node that applies to the permission: the permission itself, its parents, and wildcard nodes
+     * matching any of these. Nodes are ordered from the least to the most specific.
+     *
+     * @return The applicable nodes
+     */
+    public List<Source> getMatches() {
+        return matches;
+    }
+
+    /**
+     * Get the source of the resolved value. This is one of the {@link #getMatches() matches},
+     * or the source of the default value when no node applies.
+     *
+     * @return The winning source, or null if the permission is undefined
+     */
+    @Nullable
+    public Source getWinner() {
+        return winner;
+    }
+
+    /**
+     * A single value contributed to the baked data
+     */
+    public static class Source {
+        private final String node;
+        private final String definition;
+        private final int value;
+        private final Map.Entry<String, String> subject;
+        private final Set<Map.Entry<String, String>> contexts;
+        private final boolean transientData;
+        private final int depth, wildcards;
+
+        Source(@Nullable String node, @Nullable String definition, int value, Map.Entry<String, String> subject, Set<Map.Entry<String, String>> contexts, boolean transientData) {
+            this.node = node;
+            this.definition = definition;
+            this.value = value;
+            this.subject = subject;
+            this.contexts = contexts;
+            this.transientData = transientData;
+            int depth = 0, wildcards = 0;
+            if (node != null) {
+                for (String segment : SPLIT_REGEX.split(node)) {
+                    ++depth;
+                    if (segment.equals(NodeTree.WILDCARD)) {
+                        ++wildcards;
+                    }
+                }
+            }
+            this.depth = depth;
+            this.wildcards = wildcards;
+        }
+
+        private boolean matches(String[] permission) {
+            if (node == null) {
+                return false;
+            }
+            final String[] segments = SPLIT_REGEX.split(node.toLowerCase());
+            if (segments.length > permission.length) {
+                return false;
+            }
+            for (int i = 0; i < segments.length; ++i) {
+                if (!segments[i].equals(permission[i]) && !segments[i].equals(NodeTree.WILDCARD)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return The baked node, or null if this is the source of a default value
+         */
+        @Nullable
+        public String getNode() {
+            return node;
+        }
+
+        /**
+         * @return The permission as it was set in the subject's data, which may be a glob expanding to this node
+         */
+        @Nullable
+        public String getDefinition() {
+            return definition;
+        }
+
+        public int getValue() {
+            return value;
+        }
+
+        public Map.Entry<String, String> getSubject() {
+            return subject;
+        }
+
+        public Set<Map.Entry<String, String>> getContexts() {
+            return contexts;
+        }
+
+        /**
+         * @return Whether this value came from the subject's transient data rather than its persistent data
+         */
+        public boolean isTransient() {
+            return transientData;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheStats;
+import ninja.leaping.permissionsex.util.NodeTree;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free memo of resolved permission values for a single node tree.
+ * Each slot holds one immutable entry, so a lookup is a single hash probe. Permissions that hash to the same slot
+ * replace each other.
+ */
+class PermissionValueCache {
+    static final int DEFAULT_SIZE = 512;
+    /**
+     * Hits are counted on every cached check, so they are spread over one counter per stripe of threads instead of
+     * a single shared counter. Stripes are a cache line apart, so threads in different stripes never contend.
+     */
+    private static final int HIT_STRIPES = Math.min(Integer.highestOneBit(Math.max(Runtime.getRuntime().availableProcessors(), 1)) << 1, 16);
+    private static final int HIT_STRIDE = 8; // 64 bytes of longs
+
+    /**
+     * Slots are read and written without synchronization. This is safe because entries are immutable --
+     * at worst a thread sees a stale slot and recomputes the value.
+     */
+    private final Entry[] entries;
+    private final int mask;
+    private final AtomicLongArray hits = new AtomicLongArray(HIT_STRIPES * HIT_STRIDE);
+    private final AtomicLong misses = new AtomicLong(), replacements = new AtomicLong();
+
+    PermissionValueCache(int size) {
+        Preconditions.checkArgument(size > 0, "size must be positive");
+        int capacity = Integer.highestOneBit(size);
+        if (capacity < size) {
+            capacity <<= 1;
+        }
+        this.entries = new Entry[capacity];
+        this.mask = capacity - 1;
+    }
+
+    /**
+     * Get the value of a permission, computing and remembering it from the provided tree if not already known.
+     *
+     * @param permission The permission to look up
+     * @param tree The tree this cache memoizes
+     * @return The value of the permission
+     */
+    int get(String permission, NodeTree tree) {
+        final int slot = spread(permission.hashCode()) & this.mask;
+        final Entry existing = this.entries[slot];
+        if (existing != null && (existing.permission == permission || existing.permission.equals(permission))) {
+            this.hits.incrementAndGet(((int) Thread.currentThread().getId() & (HIT_STRIPES - 1)) * HIT_STRIDE);
+            return existing.value;
+        }
+
+        this.misses.incrementAndGet();
+        if (existing != null) {
+            this.replacements.incrementAndGet();
+        }
+        final int value = tree.get(permission);
+        this.entries[slot] = new Entry(permission, value);
+        return value;
+    }
+
+    /**
+     * Return statistics for this cache. Slots replaced by a colliding permission are reported as evictions.
+     *
+     * @return A snapshot of the current statistics
+     */
+    CacheStats getStats() {
+        long hits = 0;
+        for (int i = 0; i < HIT_STRIPES; ++i) {
+            hits += this.hits.get(i * HIT_STRIDE);
+        }
+        return new CacheStats(hits, this.misses.get(), 0, 0, 0, this.replacements.get());
+    }
+
+    /**
+     * Estimate the number of bytes retained by this cache with every slot filled. Cache weights are fixed when an
+     * entry is added, while slots fill up afterwards, so the memo is weighed at its full size.
+     * Permission strings are usually shared with the caller, so they are not counted.
+     *
+     * @return The approximate retained size in bytes
+     */
+    long getApproximateSize() {
+        return 16 + 16 + 8L * HIT_STRIPES * HIT_STRIDE + 2 * 24 + 16 + (4L + ENTRY_SIZE) * entries.length; // cache, hit stripes, counters, slots, and entries
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static final int ENTRY_SIZE = 24;
+
+    private static final class Entry {
+        private final String permission;
+        private final int value;
+
+        private Entry(String permission, int value) {
+            this.permission = permission;
+            this.value = value;
+        }
+    }
+}
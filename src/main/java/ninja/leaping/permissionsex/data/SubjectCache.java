@@ -19,6 +19,7 @@ package ninja.leaping.permissionsex.data;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.ListenableFuture;
 import ninja.leaping.permissionsex.backend.DataStore;
@@ -34,11 +35,12 @@ public class SubjectCache {
     private final Map<String, Caching> cacheHolders = new ConcurrentHashMap<>();
     private final CacheListenerHolder<String> listeners = new CacheListenerHolder<>();
 
-    public SubjectCache(final String type, final DataStore dataStore) {
+    public SubjectCache(final String type, final DataStore dataStore, int maximumSize) {
         this.type = type;
         this.dataStore = dataStore;
         cache = CacheBuilder.newBuilder()
-                .maximumSize(512)
+                .maximumSize(maximumSize)
+                .recordStats()
                 .build(new CacheLoader<String, ImmutableOptionSubjectData>() {
                     @Override
                     public ImmutableOptionSubjectData load(String identifier) throws Exception {
@@ -71,14 +73,13 @@ public class SubjectCache {
         listeners.removeAll(identifier);
     }
 
-    public void cacheAll() {
-        for (String ident : dataStore.getAllIdentifiers(type)) {
-            try {
-                cache.get(ident);
-            } catch (ExecutionException e) {
-                // oh noes, but we'll still squash it
-            }
-        }
+    /**
+     * Get statistics for the subjects loaded by this cache, including evictions and time spent loading.
+     *
+     * @return The cache statistics
+     */
+    public CacheStats getStats() {
+        return cache.stats();
     }
 
     public boolean isRegistered(String identifier) {
@@ -16,83 +16,262 @@
  */
 package ninja.leaping.permissionsex.data;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
-import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
 import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
 import ninja.leaping.permissionsex.util.Combinations;
 import ninja.leaping.permissionsex.util.NodeTree;
+import ninja.leaping.permissionsex.util.ShellGlobParser;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static java.util.Map.Entry;
+import static ninja.leaping.permissionsex.util.Translations._;
 
 /**
- * Handles baking of subject data inheritance tree and context tree into a single data set
+ * Handles baking of subject data inheritance tree and context tree into a single data set.
+ *
+ * The contributions of each subject are first flattened into an {@link Inheritance}: the ordered list of data segments
+ * visited when traversing that subject's inheritance. These are memoized on each {@link CalculatedSubject}
+ * per context set, so subjects sharing parents only traverse each parent's inheritance once.
+ * Merging a parent's inheritance skips any subject that has already been visited, which produces the same segment order
+ * as a depth-first traversal with a single visited set.
+ *
+ * Permissions containing {@link ShellGlobParser brace alternatives} are expanded while merging. Expansions are cached
+ * by the raw permission, and permissions with too many expansions are kept literally.
+ *
+ * Only the context sets a subject has data in are visited, selected from the combinations of the active contexts
+ * with {@link Combinations#matching(Iterable)}.
+ *
+ * Dependencies on the subjects visited are only recorded once their data has been read. Bakes and memoized
+ * inheritance are therefore discarded if any subject changed in between, as seen from the
+ * {@link DependencyIndex#getChangeCount() change count}.
  */
 class SubjectDataBaker {
-    private final Entry<String, String> subject;
+    private static final Cache<String, List<String>> GLOB_EXPANSIONS = CacheBuilder.newBuilder().maximumSize(4096).build();
+
     private final PermissionsEx pex;
-    private final Set<Entry<String, String>> activeContexts;
-    private final Caching updateListener;
+    private final ContextSet activeContexts;
+    private final Combinations<Entry<String, String>> combos;
+    private final DependencyIndex dependencies;
+    /**
+     * Subjects whose inheritance is currently being calculated
+     */
+    private final Set<Entry<String, String>> inProgress = new HashSet<>();
+    private int circularInheritanceCount;
+    private int contextSubsetCount;
 
     private final Map<String, Integer> combinedPermissions = new HashMap<>();
     private final List<Entry<String, String>> parents = new ArrayList<>();
     private final Map<String, String> options = new HashMap<>();
     private int defaultValue;
+    /**
+     * The source of each combined permission, only tracked when explaining
+     */
+    private final Map<String, PermissionExplanation.Source> permissionSources;
+    private PermissionExplanation.Source defaultSource;
 
-    private SubjectDataBaker(Caching updateListener, Map.Entry<String, String> subject, PermissionsEx pex, Set<Entry<String, String>> activeContexts) {
-        this.updateListener = updateListener;
-        this.subject = subject;
+    private SubjectDataBaker(PermissionsEx pex, Set<Entry<String, String>> activeContexts, boolean trackSources) {
         this.pex = pex;
-        this.activeContexts = ImmutableSet.copyOf(activeContexts);
+        this.dependencies = pex.getDependencyIndex();
+        this.activeContexts = ContextSet.of(activeContexts);
+        this.combos = Combinations.of(this.activeContexts);
+        this.permissionSources = trackSources ? new HashMap<String, PermissionExplanation.Source>() : null;
     }
 
     public static BakedSubjectData bake(CalculatedSubject data, Set<Entry<String, String>> activeContexts) throws ExecutionException {
-        return new SubjectDataBaker(data, data.getIdentifier(), data.getManager(), activeContexts).bake();
+        final DependencyIndex dependencies = data.getManager().getDependencyIndex();
+        while (true) {
+            final long changes = dependencies.getChangeCount();
+            final BakedSubjectData ret = new SubjectDataBaker(data.getManager(), activeContexts, false).bake(data);
+            if (dependencies.getChangeCount() == changes) {
+                return ret;
+            }
+            // Otherwise, data read by this bake may have changed before the bake was recorded as depending on it
+        }
+    }
+
+    /**
+     * Resolve a single permission, recording which subject, context set and data layer supplied each value.
+     * This performs the same traversal as a bake, so memoized inheritance is shared with baking.
+     *
+     * @param data The subject to explain a permission for
+     * @param activeContexts The contexts to resolve in
+     * @param permission The permission to explain
+     * @return The explanation
+     * @throws ExecutionException if the data of any subject in the inheritance could not be loaded
+     */
+    public static PermissionExplanation explain(CalculatedSubject data, Set<Entry<String, String>> activeContexts, String permission) throws ExecutionException {
+        final SubjectDataBaker baker = new SubjectDataBaker(data.getManager(), activeContexts, true);
+        baker.fold(data, new ArrayList<Segment>(), new LinkedHashMap<Entry<String, String>, DependencyIndex.Dependents>());
+        final int value = NodeTree.of(baker.combinedPermissions, baker.defaultValue).get(permission);
+        return new PermissionExplanation(permission, value, baker.permissionSources.values(), baker.defaultSource);
+    }
+
+    private BakedSubjectData bake(CalculatedSubject target) throws ExecutionException {
+        final long startTime = System.nanoTime();
+        final Entry<String, String> subject = target.getIdentifier();
+        final List<Segment> segments = new ArrayList<>();
+        final Map<Entry<String, String>, DependencyIndex.Dependents> visitedSubjects = new LinkedHashMap<>();
+        fold(target, segments, visitedSubjects);
+        for (DependencyIndex.Dependents visited : visitedSubjects.values()) {
+            dependencies.addDependency(visited, target, activeContexts);
+        }
+
+        final BakedSubjectData ret = pex.getBakedDataPool().get(activeContexts, combinedPermissions, defaultValue, parents, options);
+
+        final long elapsed = System.nanoTime() - startTime;
+        final long threshold = pex.getConfig().getSlowBakeThreshold();
+        final boolean slow = threshold > 0 && elapsed >= TimeUnit.MILLISECONDS.toNanos(threshold);
+        if (slow) {
+            pex.getLogger().warn(_("Baking %s in %s took %sms, visiting %s subjects in %s context subsets. Inheritance: %s",
+                    subject, activeContexts, TimeUnit.NANOSECONDS.toMillis(elapsed), visitedSubjects.size(), contextSubsetCount,
+                    describe(segments)).translateFormatted(Locale.getDefault()));
+        }
+        pex.getBakeMetrics().recordBake(elapsed, visitedSubjects.size(), contextSubsetCount, slow);
+        return ret;
     }
 
-    public BakedSubjectData bake() throws ExecutionException {
-        final Combinations<Entry<String, String>> combos = Combinations.of(activeContexts);
-        final Set<Map.Entry<String, String>> visitedSubjects = new HashSet<>();
-        visitSubject(subject, combos, visitedSubjects);
+    /**
+     * Merge the data of every subject in the inheritance of the target, followed by the default subject.
+     *
+     * @param target The subject being baked
+     * @param segments The list to add the merged segments to, in order
+     * @param visitedSubjects The map to add the visited subjects to, along with the listeners registered for their data
+     */
+    private void fold(CalculatedSubject target, List<Segment> segments, Map<Entry<String, String>, DependencyIndex.Dependents> visitedSubjects) throws ExecutionException {
+        final Entry<String, String> subject = target.getIdentifier();
+        final Inheritance inheritance = getInheritance(target);
+        visitedSubjects.putAll(inheritance.subjects);
+        segments.addAll(inheritance.segments);
         if (!subject.equals(pex.getDefaultIdentifier())) {
-            visitSubject(pex.getDefaultIdentifier(), combos, visitedSubjects);
+            inheritFrom(subject, pex.getDefaultIdentifier(), segments, visitedSubjects);
+        }
+
+        for (Segment segment : segments) {
+            visitSingle(segment);
+        }
+    }
+
+    /**
+     * Describe the order in which subjects' data was merged, for logging.
+     */
+    private static String describe(List<Segment> segments) {
+        final StringBuilder ret = new StringBuilder();
+        for (Segment segment : segments) {
+            if (ret.length() > 0) {
+                ret.append(" -> ");
+            }
+            ret.append(segment.subject.getKey()).append(':').append(segment.subject.getValue());
+            if (!segment.contexts.isEmpty()) {
+                ret.append(segment.contexts);
+            }
+        }
+        return ret.toString();
+    }
+
+    private Inheritance getInheritance(CalculatedSubject subject) throws ExecutionException {
+        Inheritance ret = subject.getCachedInheritance(activeContexts);
+        if (ret == null) {
+            final long changes = dependencies.getChangeCount();
+            final int circularBefore = circularInheritanceCount;
+            ret = calculateInheritance(subject.getIdentifier());
+            if (circularBefore == circularInheritanceCount) { // Inheritance truncated by a cycle through an outer subject would be incorrect for anybody else
+                for (DependencyIndex.Dependents visited : ret.subjects.values()) {
+                    dependencies.addDependency(visited, subject, activeContexts);
+                }
+                subject.cacheInheritance(activeContexts, ret);
+                if (dependencies.getChangeCount() != changes) { // Possibly calculated from data changed before the dependencies above were recorded
+                    subject.uncacheInheritance(activeContexts, ret);
+                }
+            }
         }
+        return ret;
+    }
 
-        return new BakedSubjectData(activeContexts, NodeTree.of(combinedPermissions, defaultValue), ImmutableList.copyOf(parents), ImmutableMap.copyOf(options));
+    private Inheritance calculateInheritance(Entry<String, String> subject) throws ExecutionException {
+        inProgress.add(subject);
+        try {
+            final List<Segment> segments = new ArrayList<>();
+            final Map<Entry<String, String>, DependencyIndex.Dependents> visitedSubjects = new LinkedHashMap<>();
+            final DependencyIndex.Dependents updateListener = dependencies.getListener(subject);
+            visitedSubjects.put(subject, updateListener);
+            ImmutableOptionSubjectData data = pex.getSubjects(subject.getKey()).getData(subject.getValue(), updateListener), transientData = pex.getTransientSubjects(subject.getKey()).getData(subject.getValue(), updateListener);
+            final List<Set<Entry<String, String>>> matching = combos.matching(Iterables.concat(transientData.getActiveContexts(), data.getActiveContexts()));
+            contextSubsetCount += matching.size();
+            for (Set<Entry<String, String>> combo : matching) {
+                segments.add(new Segment(subject, transientData, combo, true));
+                for (Entry<String, String> parent : transientData.getParents(combo)) {
+                    inheritFrom(subject, parent, segments, visitedSubjects);
+                }
+                segments.add(new Segment(subject, data, combo, false));
+                for (Entry<String, String> parent : data.getParents(combo)) {
+                    inheritFrom(subject, parent, segments, visitedSubjects);
+                }
+            }
+            return new Inheritance(segments, visitedSubjects);
+        } finally {
+            inProgress.remove(subject);
+        }
     }
 
-    private void visitSubject(Map.Entry<String, String> subject, Combinations<Entry<String, String>> contexts, Set<Map.Entry<String, String>> visitedSubjects) throws ExecutionException {
-        if (visitedSubjects.contains(subject)) {
-            pex.getLogger().warn("Potential circular inheritance found while traversing inheritance for " + this.subject + " when visiting " + subject);
+    /**
+     * Append the segments of a parent's inheritance, excluding any subjects that have already been visited.
+     */
+    private void inheritFrom(Entry<String, String> subject, Entry<String, String> parent, List<Segment> segments, Map<Entry<String, String>, DependencyIndex.Dependents> visitedSubjects) throws ExecutionException {
+        if (visitedSubjects.containsKey(parent) || inProgress.contains(parent)) {
+            pex.getLogger().warn(_("Potential circular inheritance found while traversing inheritance for %s when visiting %s", subject, parent)
+                    .translateFormatted(Locale.getDefault()));
+            if (!visitedSubjects.containsKey(parent)) {
+                circularInheritanceCount++;
+            }
+            pex.getBakeMetrics().recordCircularInheritance();
             return;
         }
-        visitedSubjects.add(subject);
-        ImmutableOptionSubjectData data = pex.getSubjects(subject.getKey()).getData(subject.getValue(), updateListener), transientData = pex.getTransientSubjects(subject.getKey()).getData(subject.getValue(), updateListener);
-        for (Set<Entry<String, String>> combo : contexts) {
-            visitSingle(transientData, combo);
-            for (Entry<String, String> parent : transientData.getParents(combo)) {
-                visitSubject(parent, contexts, visitedSubjects);
+
+        final Inheritance parentInheritance;
+        try {
+            parentInheritance = getInheritance(pex.getCalculatedSubject(parent.getKey(), parent.getValue()));
+        } catch (PermissionsLoadingException e) {
+            throw new ExecutionException(e);
+        }
+        final Set<Entry<String, String>> newSubjects = new HashSet<>(parentInheritance.subjects.keySet());
+        newSubjects.removeAll(visitedSubjects.keySet());
+        for (Segment segment : parentInheritance.segments) {
+            if (newSubjects.contains(segment.subject)) {
+                segments.add(segment);
             }
-            visitSingle(data, combo);
-            for (Entry<String, String> parent : data.getParents(combo)) {
-                visitSubject(parent, contexts, visitedSubjects);
+        }
+        for (Map.Entry<Entry<String, String>, DependencyIndex.Dependents> visited : parentInheritance.subjects.entrySet()) {
+            if (newSubjects.contains(visited.getKey())) {
+                visitedSubjects.put(visited.getKey(), visited.getValue());
             }
         }
     }
 
-    private void visitSingle(ImmutableOptionSubjectData data, Set<Entry<String, String>> specificCombination) {
+    private void visitSingle(Segment segment) {
+        final ImmutableOptionSubjectData data = segment.data;
+        final Set<Entry<String, String>> specificCombination = segment.contexts;
         for (Map.Entry<String, Integer> ent : data.getPermissions(specificCombination).entrySet()) {
-            Integer existing = combinedPermissions.get(ent.getKey());
-            if (existing == null || Math.abs(ent.getValue()) > Math.abs(existing)) {
-                combinedPermissions.put(ent.getKey(), ent.getValue());
+            if (ShellGlobParser.isGlob(ent.getKey())) {
+                for (String permission : expand(ent.getKey())) {
+                    visitPermission(permission, ent.getValue(), segment, ent.getKey());
+                }
+            } else {
+                visitPermission(ent.getKey(), ent.getValue(), segment, ent.getKey());
             }
         }
         parents.addAll(data.getParents(specificCombination));
@@ -103,6 +282,71 @@ class SubjectDataBaker {
         }
         if (Math.abs(data.getDefaultValue(specificCombination)) > Math.abs(defaultValue)) {
             defaultValue = data.getDefaultValue(specificCombination);
+            if (permissionSources != null) {
+                defaultSource = segment.source(null, null, defaultValue);
+            }
+        }
+    }
+
+    private List<String> expand(String glob) {
+        List<String> ret = GLOB_EXPANSIONS.getIfPresent(glob);
+        if (ret == null) {
+            try {
+                ret = ShellGlobParser.parseFrom(glob);
+            } catch (IllegalArgumentException e) {
+                pex.getLogger().warn(_("Permission %s expands to more than %s permissions, so its alternatives will not be expanded",
+                        glob, ShellGlobParser.MAX_EXPANSIONS).translateFormatted(Locale.getDefault()));
+                ret = ImmutableList.of(glob);
+            }
+            GLOB_EXPANSIONS.put(glob, ret);
+        }
+        return ret;
+    }
+
+    private void visitPermission(String permission, int value, Segment segment, String definition) {
+        Integer existing = combinedPermissions.get(permission);
+        if (existing == null || Math.abs(value) > Math.abs(existing)) {
+            combinedPermissions.put(permission, value);
+            if (permissionSources != null) {
+                permissionSources.put(permission, segment.source(permission, definition, value));
+            }
+        }
+    }
+
+    /**
+     * A single subject's data, for a single context combination
+     */
+    static class Segment {
+        private final Entry<String, String> subject;
+        private final ImmutableOptionSubjectData data;
+        private final Set<Entry<String, String>> contexts;
+        private final boolean transientData;
+
+        Segment(Entry<String, String> subject, ImmutableOptionSubjectData data, Set<Entry<String, String>> contexts, boolean transientData) {
+            this.subject = subject;
+            this.data = data;
+            this.contexts = contexts;
+            this.transientData = transientData;
+        }
+
+        PermissionExplanation.Source source(String node, String definition, int value) {
+            return new PermissionExplanation.Source(node, definition, value, subject, contexts, transientData);
+        }
+    }
+
+    /**
+     * The flattened inheritance of a single subject for a certain set of active contexts
+     */
+    static class Inheritance {
+        private final List<Segment> segments;
+        /**
+         * The subjects visited, in order, with the listeners registered for their data
+         */
+        private final Map<Entry<String, String>, DependencyIndex.Dependents> subjects;
+
+        Inheritance(List<Segment> segments, Map<Entry<String, String>, DependencyIndex.Dependents> subjects) {
+            this.segments = ImmutableList.copyOf(segments);
+            this.subjects = ImmutableMap.copyOf(subjects);
         }
     }
 }
@@ -0,0 +1,203 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import ninja.leaping.permissionsex.PermissionsEx;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads and bakes many subjects at once, spreading the work over a pool of threads. Used when a new
+ * {@link PermissionsEx} instance is started, so that the first checks after a reload are served from cache instead
+ * of each loading and baking data on whichever thread happens to ask.
+ *
+ * Groups should be warmed up before users, so users' bakes find the data and inheritance of their parents already
+ * loaded. Groups are baked in every context set that group data is defined in, which covers per-world data, but the
+ * contexts users are actually in can only be supplied by the implementation.
+ */
+public class SubjectWarmer {
+    private static final Set<Map.Entry<String, String>> GLOBAL = ImmutableSet.of();
+    /**
+     * Phases with fewer subjects than this are not worth logging progress for.
+     */
+    private static final int PROGRESS_MINIMUM = 100;
+    private final PermissionsEx pex;
+    private final int threads;
+
+    public SubjectWarmer(PermissionsEx pex, int threads) {
+        Preconditions.checkArgument(threads > 0, "threads must be positive");
+        this.pex = pex;
+        this.threads = threads;
+    }
+
+    /**
+     * Load every registered group and bake its data in the global context and in each context set any group has data in.
+     *
+     * @return The result of the warm-up
+     * @throws InterruptedException if interrupted while waiting for bakes to complete
+     */
+    public Result warmUpGroups() throws InterruptedException {
+        return warmUpGroups(ImmutableSet.<Set<Map.Entry<String, String>>>of());
+    }
+
+    /**
+     * Load every registered group and bake its data in the global context, in each context set any group has data in,
+     * and in each of the given context sets.
+     *
+     * @param contexts Additional context sets to bake in, such as those of users currently online
+     * @return The result of the warm-up
+     * @throws InterruptedException if interrupted while waiting for bakes to complete
+     */
+    public Result warmUpGroups(Set<? extends Set<Map.Entry<String, String>>> contexts) throws InterruptedException {
+        final SubjectCache cache = pex.getSubjects("group");
+        final Set<Set<Map.Entry<String, String>>> contextSets = new LinkedHashSet<>();
+        contextSets.add(GLOBAL);
+        final Map<Map.Entry<String, String>, Set<Set<Map.Entry<String, String>>>> groups = new LinkedHashMap<>();
+        for (String identifier : cache.getAllIdentifiers()) {
+            groups.put(Maps.immutableEntry("group", identifier), contextSets);
+            try {
+                Iterables.addAll(contextSets, cache.getData(identifier, null).getActiveContexts());
+            } catch (ExecutionException e) {
+                // Reported as a failure when the group is baked
+            }
+        }
+        contextSets.addAll(contexts);
+        return bakeAll("groups", groups);
+    }
+
+    /**
+     * Load and bake the data of each given subject in its given contexts.
+     *
+     * @param description A plural description of the subjects, used in log messages
+     * @param subjects The subjects to bake, mapped to the contexts to bake each in
+     * @return The result of the warm-up
+     * @throws InterruptedException if interrupted while waiting for bakes to complete
+     */
+    public Result warmUp(String description, Map<Map.Entry<String, String>, Set<Map.Entry<String, String>>> subjects) throws InterruptedException {
+        final Map<Map.Entry<String, String>, Set<Set<Map.Entry<String, String>>>> toBake = new LinkedHashMap<>();
+        for (Map.Entry<Map.Entry<String, String>, Set<Map.Entry<String, String>>> entry : subjects.entrySet()) {
+            toBake.put(entry.getKey(), Collections.singleton(entry.getValue()));
+        }
+        return bakeAll(description, toBake);
+    }
+
+    private Result bakeAll(String description, Map<Map.Entry<String, String>, Set<Set<Map.Entry<String, String>>>> subjects) throws InterruptedException {
+        final long start = System.nanoTime();
+        final int total = subjects.size();
+        final ConcurrentLinkedQueue<Map.Entry<String, String>> failures = new ConcurrentLinkedQueue<>();
+        if (total == 0) {
+            return new Result(0, ImmutableList.<Map.Entry<String, String>>of(), 0);
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, total), new ThreadFactoryBuilder()
+                .setNameFormat("PermissionsEx warm-up #%d")
+                .setDaemon(true)
+                .build());
+        try {
+            final CompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+            for (final Map.Entry<Map.Entry<String, String>, Set<Set<Map.Entry<String, String>>>> entry : subjects.entrySet()) {
+                completion.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final Map.Entry<String, String> subject = entry.getKey();
+                        try {
+                            final CalculatedSubject calculated = pex.getCalculatedSubject(subject.getKey(), subject.getValue());
+                            for (Set<Map.Entry<String, String>> contexts : entry.getValue()) {
+                                calculated.bake(contexts);
+                            }
+                        } catch (Exception e) {
+                            failures.add(subject);
+                            pex.getLogger().warn("Unable to warm up data for " + subject.getKey() + ":" + subject.getValue(), e);
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            final int progressInterval = Math.max(1, total / 10);
+            for (int completed = 1; completed <= total; ++completed) {
+                completion.take();
+                if (total >= PROGRESS_MINIMUM && completed % progressInterval == 0 && completed < total) {
+                    pex.getLogger().info("Warming up " + description + ": " + completed + "/" + total + " baked");
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final Result result = new Result(total, ImmutableList.copyOf(failures), TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        if (result.getFailures().isEmpty()) {
+            pex.getLogger().info("Warmed up " + total + " " + description + " in " + result.getElapsedMillis() + "ms");
+        } else {
+            pex.getLogger().warn("Warmed up " + total + " " + description + " in " + result.getElapsedMillis() + "ms, "
+                    + result.getFailures().size() + " of which failed: " + result.getFailures());
+        }
+        return result;
+    }
+
+    /**
+     * The outcome of a single warm-up
+     */
+    public static class Result {
+        private final int total;
+        private final List<Map.Entry<String, String>> failures;
+        private final long elapsedMillis;
+
+        private Result(int total, List<Map.Entry<String, String>> failures, long elapsedMillis) {
+            this.total = total;
+            this.failures = failures;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        /**
+         * @return The number of subjects warmed up, including those that failed
+         */
+        public int getTotal() {
+            return total;
+        }
+
+        /**
+         * @return The subjects whose data could not be loaded or baked
+         */
+        public List<Map.Entry<String, String>> getFailures() {
+            return failures;
+        }
+
+        public long getElapsedMillis() {
+            return elapsedMillis;
+        }
+    }
+}
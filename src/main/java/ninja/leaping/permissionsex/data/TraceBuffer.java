@@ -0,0 +1,193 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free record of the most recent permission, option and parent checks, used while debug mode is enabled.
+ * Recording a check only stores references to its arguments. Nothing is formatted until the buffer is read,
+ * so tracing every check costs little more than an allocation.
+ *
+ * Once the buffer is full, new events overwrite the oldest ones.
+ */
+public class TraceBuffer {
+    public enum Kind {
+        PERMISSION,
+        OPTION,
+        PARENTS
+    }
+
+    private final AtomicReferenceArray<Event> events;
+    private final int mask;
+    private final AtomicLong nextSequence = new AtomicLong();
+    private volatile Map.Entry<String, String> subjectFilter;
+    private volatile String nodeFilter;
+
+    public TraceBuffer(int capacity) {
+        Preconditions.checkArgument(capacity > 0, "capacity must be positive");
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        this.events = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    /**
+     * Record a check, if it passes the current filters.
+     *
+     * @param kind The type of check performed
+     * @param subject The subject checked
+     * @param contexts The contexts checked in. This set should not be modified afterwards
+     * @param node The permission or option checked, if any
+     * @param result The result of the check
+     */
+    public void record(Kind kind, Map.Entry<String, String> subject, Set<?> contexts, @Nullable String node, @Nullable Object result) {
+        final Map.Entry<String, String> subjectFilter = this.subjectFilter;
+        if (subjectFilter != null && !subjectFilter.equals(subject)) {
+            return;
+        }
+        final String nodeFilter = this.nodeFilter;
+        if (nodeFilter != null && (node == null || !node.regionMatches(true, 0, nodeFilter, 0, nodeFilter.length()))) {
+            return;
+        }
+
+        final long sequence = nextSequence.getAndIncrement();
+        events.set((int) (sequence & mask), new Event(sequence, System.currentTimeMillis(), kind, subject, contexts, node, result));
+    }
+
+    /**
+     * Get the most recently recorded events, oldest first. Events overwritten while reading are skipped.
+     *
+     * @param count The maximum number of events to return
+     * @return The recent events
+     */
+    public List<Event> getRecent(int count) {
+        final long end = nextSequence.get();
+        final long start = Math.max(0, end - Math.min(count, events.length()));
+        final List<Event> ret = new ArrayList<>((int) (end - start));
+        for (long sequence = start; sequence < end; ++sequence) {
+            final Event event = events.get((int) (sequence & mask));
+            if (event != null && event.sequence == sequence) {
+                ret.add(event);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Remove all recorded events.
+     */
+    public void clear() {
+        for (int i = 0; i < events.length(); ++i) {
+            events.set(i, null);
+        }
+    }
+
+    public int getCapacity() {
+        return events.length();
+    }
+
+    @Nullable
+    public Map.Entry<String, String> getSubjectFilter() {
+        return subjectFilter;
+    }
+
+    /**
+     * Only record checks of a single subject.
+     *
+     * @param subjectFilter The subject to record, or null to record all subjects
+     */
+    public void setSubjectFilter(@Nullable Map.Entry<String, String> subjectFilter) {
+        this.subjectFilter = subjectFilter;
+    }
+
+    @Nullable
+    public String getNodeFilter() {
+        return nodeFilter;
+    }
+
+    /**
+     * Only record checks of permissions and options starting with a certain prefix, ignoring case.
+     *
+     * @param nodeFilter The prefix to record, or null to record all checks
+     */
+    public void setNodeFilter(@Nullable String nodeFilter) {
+        this.nodeFilter = nodeFilter;
+    }
+
+    /**
+     * A single recorded check
+     */
+    public static final class Event {
+        private final long sequence;
+        private final long time;
+        private final Kind kind;
+        private final Map.Entry<String, String> subject;
+        private final Set<?> contexts;
+        private final String node;
+        private final Object result;
+
+        private Event(long sequence, long time, Kind kind, Map.Entry<String, String> subject, Set<?> contexts, String node, Object result) {
+            this.sequence = sequence;
+            this.time = time;
+            this.kind = kind;
+            this.subject = subject;
+            this.contexts = contexts;
+            this.node = node;
+            this.result = result;
+        }
+
+        /**
+         * @return The time of the check, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public Map.Entry<String, String> getSubject() {
+            return subject;
+        }
+
+        public Set<?> getContexts() {
+            return contexts;
+        }
+
+        @Nullable
+        public String getNode() {
+            return node;
+        }
+
+        @Nullable
+        public Object getResult() {
+            return result;
+        }
+    }
+}
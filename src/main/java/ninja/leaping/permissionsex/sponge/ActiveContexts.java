@@ -0,0 +1,59 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.sponge;
+
+import ninja.leaping.permissionsex.data.ContextSet;
+import org.spongepowered.api.service.permission.context.Context;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * The contexts a subject is active in, as handed out to Sponge. Along with the calculated {@link Context}s, this holds
+ * the equivalent interned {@link ContextSet}, so checks made in these contexts find their baked data by reference
+ * instead of hashing every context again.
+ */
+final class ActiveContexts extends AbstractSet<Context> {
+    private final Set<Context> contexts;
+    private final ContextSet contextSet;
+
+    ActiveContexts(Set<Context> contexts) {
+        this.contexts = Collections.unmodifiableSet(contexts);
+        this.contextSet = ContextSet.of(contexts);
+    }
+
+    public ContextSet getContextSet() {
+        return contextSet;
+    }
+
+    @Override
+    public Iterator<Context> iterator() {
+        return contexts.iterator();
+    }
+
+    @Override
+    public int size() {
+        return contexts.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return contexts.contains(o);
+    }
+}
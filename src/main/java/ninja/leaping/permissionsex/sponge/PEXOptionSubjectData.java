@@ -22,7 +22,10 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import ninja.leaping.permissionsex.data.Caching;
+import ninja.leaping.permissionsex.data.ContextSet;
 import ninja.leaping.permissionsex.data.ImmutableOptionSubjectData;
 import ninja.leaping.permissionsex.data.SubjectCache;
 import org.spongepowered.api.service.permission.Subject;
@@ -59,12 +62,10 @@ public class PEXOptionSubjectData implements OptionSubjectData, Caching {
      * This is valid because all Contexts are Map.Entries
      *
      * @param input The input set
-     * @return A properly casted set
+     * @return The canonical context set equal to the input
      */
-    @SuppressWarnings("unchecked")
-    static Set<Map.Entry<String, String>> parSet(Set<Context> input) {
-        return (Set) input;
-
+    static ContextSet parSet(Set<Context> input) {
+        return ContextSet.of(input);
     }
 
     private static <T> Map<Set<Context>, T> tKeys(Map<Set<Map.Entry<String, String>>, T> input) {
@@ -120,6 +121,23 @@ public class PEXOptionSubjectData implements OptionSubjectData, Caching {
         return updateIfChanged(data, data.setOption(parSet(contexts), key, value));
     }
 
+    /**
+     * Set an option like {@link #setOption(Set, String, String)}, but wait for the change to be stored.
+     *
+     * @param contexts The contexts to set the option in
+     * @param key The key of the option
+     * @param value The new value of the option
+     * @return A future completing once the change has been stored and anything caching this subject's data has been
+     *          notified, or immediately if the option already had this value
+     */
+    ListenableFuture<ImmutableOptionSubjectData> updateOption(Set<Context> contexts, String key, String value) {
+        final ImmutableOptionSubjectData old = data, newData = old.setOption(parSet(contexts), key, value);
+        if (newData == null || newData == old) {
+            return Futures.immediateFuture(old);
+        }
+        return cache.update(identifier, newData);
+    }
+
     @Override
     public boolean clearOptions(Set<Context> contexts) {
         return updateIfChanged(data, data.clearOptions(parSet(contexts)));
@@ -19,9 +19,12 @@ package ninja.leaping.permissionsex.sponge;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
+import ninja.leaping.permissionsex.PermissionsEx;
 import ninja.leaping.permissionsex.data.CalculatedSubject;
 import ninja.leaping.permissionsex.data.SubjectCache;
+import ninja.leaping.permissionsex.data.TraceBuffer;
 import ninja.leaping.permissionsex.exception.PermissionsLoadingException;
 import org.spongepowered.api.service.permission.Subject;
 import org.spongepowered.api.service.permission.context.Context;
@@ -32,15 +35,13 @@ import org.spongepowered.api.util.annotation.NonnullByDefault;
 import org.spongepowered.api.util.command.CommandSource;
 
 import javax.annotation.Nullable;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 
-import static ninja.leaping.permissionsex.sponge.PEXOptionSubjectData.parSet;
-
 /**
  * Permissions subject implementation
  */
@@ -66,20 +67,54 @@ public class PEXSubject implements OptionSubject {
         this.transientData.updateCache(transientCache);
     }
 
+    /**
+     * Contexts are Map.Entries, so they can be used for lookups directly. Our own active contexts carry their interned
+     * context set, which calculated subjects compare by reference. Other sets are only copied when they are not the
+     * ones most recently baked.
+     *
+     * @param contexts The input set
+     * @return A properly casted set
+     */
+    @SuppressWarnings("unchecked")
+    static Set<Map.Entry<String, String>> lookupSet(Set<Context> contexts) {
+        if (contexts instanceof ActiveContexts) {
+            return ((ActiveContexts) contexts).getContextSet();
+        }
+        return (Set) contexts;
+    }
+
     @Override
     public String getIdentifier() {
         return identifier;
     }
 
-    private String identifyUser() {
-        final Optional<CommandSource> source = getCommandSource();
-        return getIdentifier() + (source.isPresent() ? "/" + source.get().getName() : "");
+    /**
+     * Record a check in the trace buffer if debug mode is enabled. Callers may reuse their context sets, so the buffer
+     * is given a copy.
+     */
+    private void trace(TraceBuffer.Kind kind, Set<Context> contexts, @Nullable String node, @Nullable Object result) {
+        final PermissionsEx manager = collection.getPlugin().getManager();
+        if (manager.hasDebugMode()) {
+            manager.getTraceBuffer().record(kind, baked.getIdentifier(), ImmutableSet.copyOf(contexts), node, result);
+        }
     }
 
     public CalculatedSubject getBaked() {
         return this.baked;
     }
 
+    /**
+     * Calculate this subject's data in the given contexts, so that later checks in those contexts do not have to
+     * load or bake data. This may be called from any thread, but the contexts should come from
+     * {@link #getActiveContexts()} on the main thread, where context calculators expect to be called.
+     *
+     * @param contexts The contexts to calculate data for
+     * @throws ExecutionException if this subject's data could not be calculated
+     */
+    public void prebake(Set<Context> contexts) throws ExecutionException {
+        this.baked.bake(lookupSet(contexts));
+    }
+
     @Override
     public Optional<CommandSource> getCommandSource() {
         return getContainingCollection().getCommandSource(this.identifier);
@@ -104,10 +139,8 @@ public class PEXSubject implements OptionSubject {
     public Optional<String> getOption(Set<Context> contexts, String key) {
         Preconditions.checkNotNull(contexts, "contexts");
         Preconditions.checkNotNull(key, "key");
-        final String val = baked.getOptions(parSet(contexts)).get(key);
-        if (collection.getPlugin().getManager().hasDebugMode()) {
-            collection.getPlugin().getLogger().info("Option " + key + " checked in " + contexts + " for user " + identifyUser() + ": " + val);
-        }
+        final String val = baked.getOptions(lookupSet(contexts)).get(key);
+        trace(TraceBuffer.Kind.OPTION, contexts, key, val);
         return Optional.fromNullable(val);
     }
 
@@ -131,11 +164,73 @@ public class PEXSubject implements OptionSubject {
         Preconditions.checkNotNull(contexts, "contexts");
         Preconditions.checkNotNull(permission, "permission");
 
-        int ret = baked.getPermissions(parSet(contexts)).get(permission);
+        int ret = baked.getPermission(lookupSet(contexts), permission);
+        trace(TraceBuffer.Kind.PERMISSION, contexts, permission, ret);
+        return tristate(ret);
+    }
+
+    /**
+     * Get the values of several permissions at once, in this subject's currently active contexts.
+     * Active contexts are only calculated once for the whole batch.
+     *
+     * @param permissions The permissions to check
+     * @return The values of the permissions, in the same order as the permissions were given
+     */
+    public List<Tristate> getPermissionValues(List<String> permissions) {
+        return getPermissionValues(getActiveContexts(), permissions);
+    }
+
+    /**
+     * Get the values of several permissions at once. All values are resolved from the same baked data.
+     *
+     * @param contexts The contexts to check in
+     * @param permissions The permissions to check
+     * @return The values of the permissions, in the same order as the permissions were given
+     */
+    public List<Tristate> getPermissionValues(Set<Context> contexts, List<String> permissions) {
+        Preconditions.checkNotNull(contexts, "contexts");
+        Preconditions.checkNotNull(permissions, "permissions");
+
+        final int[] values = baked.getPermissions(lookupSet(contexts), permissions);
+        final Tristate[] ret = new Tristate[values.length];
+        for (int i = 0; i < values.length; ++i) {
+            ret[i] = tristate(values[i]);
+        }
         if (collection.getPlugin().getManager().hasDebugMode()) {
-            collection.getPlugin().getLogger().info("Permission " + permission + " checked in " + contexts + " for user " + identifyUser() + ": " + ret);
+            for (int i = 0; i < values.length; ++i) {
+                trace(TraceBuffer.Kind.PERMISSION, contexts, permissions.get(i), values[i]);
+            }
         }
-        return ret == 0 ? Tristate.UNDEFINED : ret > 0 ? Tristate.TRUE : Tristate.FALSE;
+        return Arrays.asList(ret);
+    }
+
+    /**
+     * Get the permissions at or below a certain node that are granted to this subject in its currently active contexts.
+     *
+     * @param prefix The node to search below
+     * @return The granted permissions
+     */
+    public List<String> getGrantedPermissions(String prefix) {
+        return getGrantedPermissions(getActiveContexts(), prefix);
+    }
+
+    /**
+     * Get the permissions at or below a certain node that are granted to this subject.
+     *
+     * @param contexts The contexts to check in
+     * @param prefix The node to search below
+     * @return The granted permissions
+     */
+    public List<String> getGrantedPermissions(Set<Context> contexts, String prefix) {
+        Preconditions.checkNotNull(contexts, "contexts");
+        Preconditions.checkNotNull(prefix, "prefix");
+        final List<String> ret = baked.getGrantedPermissions(lookupSet(contexts), prefix);
+        trace(TraceBuffer.Kind.PERMISSION, contexts, prefix, ret);
+        return ret;
+    }
+
+    private static Tristate tristate(int value) {
+        return value == 0 ? Tristate.UNDEFINED : value > 0 ? Tristate.TRUE : Tristate.FALSE;
     }
 
 
@@ -157,7 +252,7 @@ public class PEXSubject implements OptionSubject {
         for (ContextCalculator calc : this.collection.getPlugin().getContextCalculators()) {
             calc.accumulateContexts(this, set);
         }
-        return Collections.unmodifiableSet(set);
+        return new ActiveContexts(set);
     }
 
     @Override
@@ -168,10 +263,8 @@ public class PEXSubject implements OptionSubject {
     @Override
     public List<Subject> getParents(final Set<Context> contexts) {
         Preconditions.checkNotNull(contexts, "contexts");
-        final List<Map.Entry<String, String>> parents = baked.getParents(parSet(contexts));
-        if (collection.getPlugin().getManager().hasDebugMode()) {
-            collection.getPlugin().getLogger().info("Parents checked in " + contexts + " for user " + identifyUser() + ": " + parents);
-        }
+        final List<Map.Entry<String, String>> parents = baked.getParents(lookupSet(contexts));
+        trace(TraceBuffer.Kind.PARENTS, contexts, null, parents);
         return Lists.transform(parents, new Function<Map.Entry<String, String>, Subject>() {
             @Nullable
             @Override
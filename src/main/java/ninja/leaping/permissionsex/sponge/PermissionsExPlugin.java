@@ -26,6 +26,7 @@ import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -72,6 +73,7 @@ import org.spongepowered.api.service.permission.context.Context;
 import org.spongepowered.api.service.permission.context.ContextCalculator;
 import org.spongepowered.api.service.profile.GameProfileResolver;
 import org.spongepowered.api.service.scheduler.AsynchronousScheduler;
+import org.spongepowered.api.service.scheduler.SynchronousScheduler;
 import org.spongepowered.api.service.sql.SqlService;
 import org.spongepowered.api.service.user.UserStorage;
 import org.spongepowered.api.util.annotation.NonnullByDefault;
@@ -84,6 +86,8 @@ import java.io.File;
 import java.io.IOException;
 import java.net.URL;
 import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -107,6 +111,7 @@ public class PermissionsExPlugin implements PermissionService, ImplementationInt
 
     private ServiceReference<SqlService> sql;
     private ServiceReference<AsynchronousScheduler> scheduler;
+    private ServiceReference<SynchronousScheduler> syncScheduler;
     @Inject private ServiceManager services;
     @Inject private Logger logger;
     @Inject @ConfigDir(sharedRoot = false) private File configDir;
@@ -139,6 +144,7 @@ public class PermissionsExPlugin implements PermissionService, ImplementationInt
         logger.info(lf(_("Pre-init of %s v%s", PomData.NAME, PomData.VERSION)));
         sql = services.potentiallyProvide(SqlService.class);
         scheduler = services.potentiallyProvide(AsynchronousScheduler.class);
+        syncScheduler = services.potentiallyProvide(SynchronousScheduler.class);
 
         try {
             convertFromBukkit();
@@ -270,15 +276,73 @@ public class PermissionsExPlugin implements PermissionService, ImplementationInt
         }
     }
 
+    /**
+     * Load and bake the joining user's data off the main thread, so their first permission checks are served from cache.
+     * If the user's name has changed, baking waits until the new name has been stored, since storing it discards baked
+     * data. Context calculators
+     * are only called on the main thread, so the user's active contexts are calculated there in between.
+     *
+     * @param event The join event
+     */
     @Subscribe
     public void onPlayerJoin(PlayerJoinEvent event) {
         final String identifier = event.getEntity().getIdentifier();
-        final PEXSubject subject = getUserSubjects().get(identifier);
-        if (getUserSubjects().hasRegistered(identifier)) {
-            if (!event.getEntity().getName().equals(subject.getOption(SubjectData.GLOBAL_CONTEXT, "name").orNull())) {
-                subject.getSubjectData().setOption(SubjectData.GLOBAL_CONTEXT, "name", event.getEntity().getName());
+        final String name = event.getEntity().getName();
+        executeAsyncronously(new Runnable() {
+            @Override
+            public void run() {
+                final PEXSubject subject;
+                final ListenableFuture<?> nameUpdated;
+                try {
+                    subject = getUserSubjects().get(identifier);
+                    if (getUserSubjects().hasRegistered(identifier)
+                            && !name.equals(subject.getOption(SubjectData.GLOBAL_CONTEXT, "name").orNull())) {
+                        nameUpdated = subject.getSubjectData().updateOption(SubjectData.GLOBAL_CONTEXT, "name", name);
+                    } else {
+                        nameUpdated = Futures.immediateFuture(null);
+                    }
+                } catch (Exception e) {
+                    logger.warn(lf(_("Unable to prepare permissions data for %s", identifier)), e);
+                    return;
+                }
+                Futures.addCallback(nameUpdated, new FutureCallback<Object>() {
+                    @Override
+                    public void onSuccess(@Nullable Object result) {
+                        prebake(subject, identifier);
+                    }
+
+                    @Override
+                    public void onFailure(Throwable t) {
+                        logger.warn(lf(_("Unable to prepare permissions data for %s", identifier)), t);
+                    }
+                });
             }
-        }
+        });
+    }
+
+    /**
+     * Calculate a joining user's active contexts on the main thread, then bake their data in those contexts.
+     *
+     * @param subject The user's subject
+     * @param identifier The user's identifier
+     */
+    private void prebake(final PEXSubject subject, final String identifier) {
+        executeSynchronously(new Runnable() {
+            @Override
+            public void run() {
+                final Set<Context> contexts = subject.getActiveContexts();
+                executeAsyncronously(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            subject.prebake(contexts);
+                        } catch (Exception e) {
+                            logger.warn(lf(_("Unable to prepare permissions data for %s", identifier)), e);
+                        }
+                    }
+                });
+            }
+        });
     }
 
     @Subscribe
@@ -341,6 +405,9 @@ public class PermissionsExPlugin implements PermissionService, ImplementationInt
             for (PEXSubjectCollection collection : subjectCollections.asMap().values()) {
                 collection.updateCaches();
             }
+            if (oldManager != null) { // Only a reload can have players online
+                warmUpOnlinePlayers();
+            }
         } catch (IOException e) {
             throw new PEBKACException(_("Error while loading configuration: %s", e.getLocalizedMessage()));
         } catch (ExecutionException e) {
@@ -348,6 +415,39 @@ public class PermissionsExPlugin implements PermissionService, ImplementationInt
         }
     }
 
+    /**
+     * Bake the data of every group and online player in the players' active contexts, so checks after a reload do not
+     * each re-bake on the main thread. The online players and their contexts are only read on the main thread, and the
+     * baking itself is then handed back to the asynchronous scheduler.
+     */
+    private void warmUpOnlinePlayers() {
+        final PermissionsEx manager = this.manager;
+        executeSynchronously(new Runnable() {
+            @Override
+            public void run() {
+                final Map<Map.Entry<String, String>, Set<Map.Entry<String, String>>> players = new HashMap<>();
+                for (Player player : game.getServer().getOnlinePlayers()) {
+                    final PEXSubject subject = getUserSubjects().get(player.getIdentifier());
+                    players.put(Maps.immutableEntry(SUBJECTS_USER, player.getIdentifier()), PEXSubject.lookupSet(subject.getActiveContexts()));
+                }
+                if (players.isEmpty()) {
+                    return;
+                }
+                executeAsyncronously(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            manager.warmUpGroups(new HashSet<>(players.values()));
+                            manager.warmUp("online players", players);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                    }
+                });
+            }
+        });
+    }
+
     public ListenableFuture<Void> reload() {
         ListenableFutureTask<Void> task = ListenableFutureTask.create(new Callable<Void>() {
             @Override
@@ -448,6 +548,15 @@ public class PermissionsExPlugin implements PermissionService, ImplementationInt
         scheduler.ref().get().runTask(PermissionsExPlugin.this, run);
     }
 
+    /**
+     * Schedule a task to run on the main thread.
+     *
+     * @param run The task to be run
+     */
+    void executeSynchronously(Runnable run) {
+        syncScheduler.ref().get().runTask(PermissionsExPlugin.this, run);
+    }
+
     @Override
     public void registerCommand(CommandSpec command) {
         game.getCommandDispatcher().register(this, new PEXSpongeCommand(command, this), command.getAliases());
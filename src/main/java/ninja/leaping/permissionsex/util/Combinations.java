@@ -16,11 +16,18 @@
  */
 package ninja.leaping.permissionsex.util;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.PeekingIterator;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -31,9 +38,14 @@ import java.util.Set;
  */
 public class Combinations<T> implements Iterable<Set<T>> {
     private final T[] items;
+    private final Map<T, Integer> indices;
 
     private Combinations(Set<T> items) {
         this.items = (T[]) items.toArray();
+        this.indices = new HashMap<>(this.items.length * 2);
+        for (int i = 0; i < this.items.length; ++i) {
+            this.indices.put(this.items[i], i);
+        }
     }
 
     public static <T> Combinations<T> of(Set<T> items) {
@@ -98,6 +110,58 @@ public class Combinations<T> implements Iterable<Set<T>> {
         }
     }
 
+    /**
+     * Select the candidates that are subsets of this set of values, in the order they would be returned by this
+     * combination's iterator. This is equivalent to filtering the full iteration to only the candidates,
+     * but only takes time proportional to the number of candidates, not the 2^n possible combinations.
+     *
+     * Within a certain length, the iterator returns combinations in colexicographic order of the indices of their items.
+     * With each combination represented as a bitmask of item indices, this is the same as ascending numeric order.
+     *
+     * @param candidates The sets to select from
+     * @return The candidates that are subsets of this set of values, without duplicates
+     */
+    public List<Set<T>> matching(Iterable<? extends Set<T>> candidates) {
+        Preconditions.checkState(items.length < Long.SIZE, "Too many values to match combinations of (%s)", items.length);
+        final Map<Long, Set<T>> byMask = new HashMap<>();
+        candidateLoop:
+        for (Set<T> candidate : candidates) {
+            long mask = 0;
+            for (T item : candidate) {
+                final Integer index = indices.get(item);
+                if (index == null) {
+                    continue candidateLoop;
+                }
+                mask |= 1L << index;
+            }
+            if (!byMask.containsKey(mask)) {
+                byMask.put(mask, candidate);
+            }
+        }
+
+        final List<Long> masks = new ArrayList<>(byMask.keySet());
+        Collections.sort(masks, MASK_ORDER);
+        final List<Set<T>> ret = new ArrayList<>(masks.size());
+        for (Long mask : masks) {
+            ret.add(byMask.get(mask));
+        }
+        return ret;
+    }
+
+    /**
+     * Longest combinations first, then ascending by bitmask
+     */
+    private static final Comparator<Long> MASK_ORDER = new Comparator<Long>() {
+        @Override
+        public int compare(Long a, Long b) {
+            final int aCount = Long.bitCount(a), bCount = Long.bitCount(b);
+            if (aCount != bCount) {
+                return aCount > bCount ? -1 : 1;
+            }
+            return a.compareTo(b);
+        }
+    };
+
     @Override
     public Iterator<Set<T>> iterator() {
         return new CombinationIterator();
@@ -16,31 +16,65 @@
  */
 package ninja.leaping.permissionsex.util;
 
+import com.google.common.base.Joiner;
+import com.google.common.collect.AbstractIterator;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Maps;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 import java.util.regex.Pattern;
 
 /**
  * An immutable tree structure for determining node data. Any changes will create new copies of the necessary tree objects.
  * Keys are case-insensitive.
  * Segments of nodes are split by the '.' character
+ *
+ * A tree may be compiled with {@link #compile()} into a read-only form where lookups walk the queried node by
+ * character index, performing no allocations.
+ *
+ * A segment consisting only of {@value #WILDCARD} matches any single segment. Where both a wildcard and an exact segment
+ * match at the same depth, the exact segment's subtree takes precedence. Along the queried node, a deeper value replaces
+ * a shallower one only if its magnitude is at least as large.
  */
 public class NodeTree {
     public static final int PERMISSION_UNDEFINED = 0;
+    public static final String WILDCARD = "*";
 
     private static final Pattern SPLIT_REGEX = Pattern.compile("\\.");
+    private static final Joiner JOINER = Joiner.on('.');
+    private static final Interner<String> SEGMENT_INTERNER = Interners.newWeakInterner();
     private final Node rootNode;
+    private final CompiledNode compiledRoot;
+    private final int compiledValue;
 
 
-    private NodeTree(int value) {
-        this.rootNode = new Node(new HashMap<String, Node>());
-        this.rootNode.value = value;
+    private NodeTree(Node rootNode) {
+        this.rootNode = rootNode;
+        this.compiledRoot = null;
+        this.compiledValue = PERMISSION_UNDEFINED;
     }
 
-    private NodeTree(Node rootNode) {
+    /**
+     * Create a compiled tree. The root node only needs to be retained when the compiled form differs from it,
+     * which is when wildcards have been merged into their siblings.
+     */
+    private NodeTree(Node rootNode, CompiledNode compiledRoot, int compiledValue) {
         this.rootNode = rootNode;
+        this.compiledRoot = compiledRoot;
+        this.compiledValue = compiledValue;
     }
 
     /**
@@ -61,22 +95,31 @@ public class NodeTree {
      * @return The newly created node tree
      */
     public static NodeTree of(Map<String, Integer> values, int defaultValue) {
-        NodeTree newTree = new NodeTree(defaultValue);
-        for (Map.Entry<String, Integer> value : values.entrySet()) {
-            String[] parts = SPLIT_REGEX.split(value.getKey().toLowerCase());
-            Node currentNode = newTree.rootNode;
-            for (String part : parts) {
-                if (currentNode.children.containsKey(part)) {
-                    currentNode = currentNode.children.get(part);
-                } else {
-                    Node newNode = new Node(new HashMap<String, Node>());
-                    currentNode.children.put(part, newNode);
-                    currentNode = newNode;
-                }
-            }
-            currentNode.value = value.getValue();
+        return builder().setDefaultValue(defaultValue).setAll(values).build();
+    }
+
+    /**
+     * Create a builder for a new, empty node tree.
+     *
+     * @return The new builder
+     */
+    public static Builder builder() {
+        return new Builder(new Node(new HashMap<String, Node>()), null);
+    }
+
+    /**
+     * Create a builder initially containing the values of this tree. Building does not modify this tree.
+     *
+     * @return The new builder
+     */
+    public Builder toBuilder() {
+        if (this.rootNode != null) {
+            return new Builder(this.rootNode, null);
         }
-        return newTree;
+        final Object owner = new Object();
+        final Node root = this.compiledRoot.thaw(owner);
+        root.value = this.compiledValue;
+        return new Builder(root, owner);
     }
 
     /**
@@ -86,22 +129,190 @@ public class NodeTree {
      * @return The tristate value for the given node
      */
     public int get(String node) {
+        if (this.compiledRoot != null) {
+            return this.compiledRoot.get(node, this.compiledValue);
+        }
         String[] parts = SPLIT_REGEX.split(node.toLowerCase());
-        Node currentNode = this.rootNode;
+        List<Node> currentNodes = Collections.singletonList(this.rootNode);
         int lastUndefinedVal = this.rootNode.value;
         for (String str : parts) {
-            if (!currentNode.children.containsKey(str)) {
+            currentNodes = Node.children(currentNodes, str);
+            if (currentNodes.isEmpty()) {
                 break;
             }
-            currentNode = currentNode.children.get(str);
-            if (Math.abs(currentNode.value) >= Math.abs(lastUndefinedVal)) {
-                lastUndefinedVal = currentNode.value;
+            final int value = Node.value(currentNodes);
+            if (Math.abs(value) >= Math.abs(lastUndefinedVal)) {
+                lastUndefinedVal = value;
             }
         }
         return lastUndefinedVal;
 
     }
 
+    /**
+     * Get the values of several nodes at once, with the same result as calling {@link #get(String)} for each node.
+     * On a compiled tree, the nodes are visited in sorted order, so segments shared with the previous node
+     * are only traversed once.
+     *
+     * @param nodes The paths to get the node values at
+     * @return The values of the nodes, in the same order as the nodes were given
+     */
+    public int[] getAll(List<String> nodes) {
+        final int[] ret = new int[nodes.size()];
+        if (this.compiledRoot == null) {
+            for (int i = 0; i < ret.length; ++i) {
+                ret[i] = get(nodes.get(i));
+            }
+            return ret;
+        }
+
+        final String[][] parts = new String[ret.length][];
+        final Integer[] order = new Integer[ret.length];
+        for (int i = 0; i < ret.length; ++i) {
+            parts[i] = SPLIT_REGEX.split(nodes.get(i).toLowerCase());
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                final String[] aParts = parts[a], bParts = parts[b];
+                for (int i = 0; i < aParts.length && i < bParts.length; ++i) {
+                    final int cmp = aParts[i].compareTo(bParts[i]);
+                    if (cmp != 0) {
+                        return cmp;
+                    }
+                }
+                return aParts.length - bParts.length;
+            }
+        });
+
+        // The path walked for the previous node: pathNodes[i] is reached after i segments
+        CompiledNode[] pathNodes = new CompiledNode[8];
+        int[] pathValues = new int[8];
+        pathNodes[0] = this.compiledRoot;
+        pathValues[0] = this.compiledValue;
+        String[] previous = null;
+        int walked = 0;
+        for (Integer index : order) {
+            final String[] current = parts[index];
+            int depth = 0;
+            if (previous != null) {
+                while (depth < walked && depth < current.length && previous[depth].equals(current[depth])) {
+                    ++depth;
+                }
+            }
+            if (current.length >= pathNodes.length) {
+                pathNodes = Arrays.copyOf(pathNodes, current.length + 1);
+                pathValues = Arrays.copyOf(pathValues, current.length + 1);
+            }
+
+            for (; depth < current.length; ++depth) {
+                final CompiledNode parent = pathNodes[depth];
+                if (parent == null) { // The previous segment was a leaf
+                    break;
+                }
+                int child = parent.indexOf(current[depth], 0, current[depth].length());
+                if (child < 0) {
+                    child = parent.wildcardIndex();
+                    if (child < 0) {
+                        break;
+                    }
+                }
+                final int value = parent.value(child);
+                pathNodes[depth + 1] = parent.child(child);
+                pathValues[depth + 1] = Math.abs(value) >= Math.abs(pathValues[depth]) ? value : pathValues[depth];
+            }
+            ret[index] = pathValues[depth];
+            previous = current;
+            walked = depth;
+        }
+        return ret;
+    }
+
+    /**
+     * Iterate over the nodes defined at or below a certain node. Nodes are produced lazily while walking the
+     * subtree, so neither a map of the whole tree nor the names of nodes outside of the prefix are ever built.
+     *
+     * As with {@link #asMap()}, each node is paired with the value defined at that node, which may differ from
+     * the value {@link #get(String)} resolves for it.
+     *
+     * @param prefix The node to iterate below, or an empty string to iterate over the whole tree
+     * @return The defined nodes and their values
+     */
+    public Iterable<Map.Entry<String, Integer>> entriesUnder(String prefix) {
+        final String[] parts = prefix.isEmpty() ? new String[0] : SPLIT_REGEX.split(prefix.toLowerCase());
+        final String path = parts.length == 0 ? null : JOINER.join(parts);
+        if (this.rootNode != null) {
+            Node node = this.rootNode;
+            for (String part : parts) {
+                node = node.children.get(part);
+                if (node == null) {
+                    return Collections.emptyList();
+                }
+            }
+            final Node start = node;
+            return new Iterable<Map.Entry<String, Integer>>() {
+                @Override
+                public Iterator<Map.Entry<String, Integer>> iterator() {
+                    return new SubtreeIterator<Node>(path, start) {
+                        @Override
+                        int value(Node node) {
+                            return node.value;
+                        }
+
+                        @Override
+                        Iterator<Map.Entry<String, Node>> children(Node node) {
+                            return node.children.entrySet().iterator();
+                        }
+                    };
+                }
+            };
+        } else {
+            CompiledChild node = new CompiledChild(this.compiledValue, this.compiledRoot);
+            for (String part : parts) {
+                final int index = node.node == null ? -1 : node.node.indexOf(part, 0, part.length());
+                if (index < 0) {
+                    return Collections.emptyList();
+                }
+                node = new CompiledChild(node.node.value(index), node.node.child(index));
+            }
+            final CompiledChild start = node;
+            return new Iterable<Map.Entry<String, Integer>>() {
+                @Override
+                public Iterator<Map.Entry<String, Integer>> iterator() {
+                    return new SubtreeIterator<CompiledChild>(path, start) {
+                        @Override
+                        int value(CompiledChild node) {
+                            return node.value;
+                        }
+
+                        @Override
+                        Iterator<Map.Entry<String, CompiledChild>> children(final CompiledChild parent) {
+                            if (parent.node == null) {
+                                return Iterators.emptyIterator();
+                            }
+                            return new AbstractIterator<Map.Entry<String, CompiledChild>>() {
+                                private int index;
+
+                                @Override
+                                protected Map.Entry<String, CompiledChild> computeNext() {
+                                    final CompiledNode node = parent.node;
+                                    if (index >= node.size()) {
+                                        return endOfData();
+                                    }
+                                    final Map.Entry<String, CompiledChild> ret = Maps.immutableEntry(node.key(index),
+                                            new CompiledChild(node.value(index), node.child(index)));
+                                    ++index;
+                                    return ret;
+                                }
+                            };
+                        }
+                    };
+                }
+            };
+        }
+    }
+
     /**
      * Convert this node tree into a map of the defined nodes in this tree.
      *
@@ -109,8 +320,12 @@ public class NodeTree {
      */
     public Map<String, Integer> asMap() {
         ImmutableMap.Builder<String, Integer> ret = ImmutableMap.builder();
-        for (Map.Entry<String, Node> ent : this.rootNode.children.entrySet()) {
-            populateMap(ret, ent.getKey(), ent.getValue());
+        if (this.rootNode == null) {
+            populateMap(ret, null, this.compiledRoot);
+        } else {
+            for (Map.Entry<String, Node> ent : this.rootNode.children.entrySet()) {
+                populateMap(ret, ent.getKey(), ent.getValue());
+            }
         }
         return ret.build();
     }
@@ -124,6 +339,57 @@ public class NodeTree {
         }
     }
 
+    private void populateMap(ImmutableMap.Builder<String, Integer> values, String prefix, CompiledNode currentNode) {
+        for (int i = 0; i < currentNode.size(); ++i) {
+            final String path = prefix == null ? currentNode.key(i) : prefix + '.' + currentNode.key(i);
+            if (currentNode.value(i) != 0) {
+                values.put(path, currentNode.value(i));
+            }
+            if (currentNode.child(i) != null) {
+                populateMap(values, path, currentNode.child(i));
+            }
+        }
+    }
+
+    /**
+     * Return a read-only form of this tree optimized for lookups. Segments are interned and stored in sorted arrays,
+     * so {@link #get(String)} performs no allocation on a compiled tree.
+     *
+     * Modifying a compiled tree is still possible, but the returned trees will not be compiled.
+     *
+     * Wildcard segments are merged into each of their siblings in the compiled form, so lookups do not need to backtrack.
+     *
+     * @return The compiled tree, or this tree if already compiled
+     */
+    public NodeTree compile() {
+        if (this.compiledRoot != null) {
+            return this;
+        }
+        final CompiledNode compiled = CompiledNode.compile(Collections.singletonList(this.rootNode));
+        return new NodeTree(this.rootNode.hasWildcards() ? this.rootNode : null, compiled == null ? CompiledNode.EMPTY : compiled, this.rootNode.value);
+    }
+
+    /**
+     * Get whether this tree has been compiled.
+     *
+     * @return Whether this tree is in compiled form
+     * @see #compile()
+     */
+    public boolean isCompiled() {
+        return this.compiledRoot != null;
+    }
+
+    /**
+     * Estimate the number of bytes retained by this tree. Interned segments of compiled trees are shared,
+     * so they are not counted.
+     *
+     * @return The approximate retained size of this tree in bytes
+     */
+    public long getApproximateSize() {
+        return (this.compiledRoot != null ? 8 + this.compiledRoot.getApproximateSize() : 0)
+                + (this.rootNode != null ? this.rootNode.getApproximateSize() : 0);
+    }
+
     /**
      * Return a new NodeTree instance with a single changed value.
      *
@@ -132,21 +398,7 @@ public class NodeTree {
      * @return The new, modified node tree
      */
     public NodeTree withValue(String node, int value) {
-        String[] parts = SPLIT_REGEX.split(node.toLowerCase());
-        Node newRoot = new Node(new HashMap<>(this.rootNode.children));
-        Node newPtr = newRoot;
-        Node currentPtr = this.rootNode;
-
-        newPtr.value = currentPtr == null ? 0 : currentPtr.value;
-        for (String part : parts) {
-            Node oldChild = currentPtr == null ? null : currentPtr.children.get(part);
-            Node newChild = new Node(oldChild != null ? new HashMap<>(oldChild.children) : new HashMap<String, Node>());
-            newPtr.children.put(part, newChild);
-            currentPtr = oldChild;
-            newPtr = newChild;
-        }
-        newPtr.value = value;
-        return new NodeTree(newRoot);
+        return toBuilder().set(node, value).build();
     }
 
     /**
@@ -156,20 +408,518 @@ public class NodeTree {
      * @return The new node tree
      */
     public NodeTree withAll(Map<String, Integer> values) {
-        NodeTree ret = this;
-        for (Map.Entry<String, Integer> ent : values.entrySet()) {
-            ret = ret.withValue(ent.getKey(), ent.getValue());
-        }
-        return ret;
+        return toBuilder().setAll(values).build();
     }
 
     private static class Node {
 
         private final Map<String, Node> children;
         private int value = 0;
+        /**
+         * The builder that may modify this node in place, if any
+         */
+        private Object owner;
 
         private Node(Map<String, Node> children) {
             this.children = children;
         }
+
+        /**
+         * Get a copy of this node that may be modified by the given owner
+         */
+        Node mutableCopy(Object owner) {
+            if (this.owner == owner) {
+                return this;
+            }
+            final Node ret = new Node(new HashMap<>(this.children));
+            ret.value = this.value;
+            ret.owner = owner;
+            return ret;
+        }
+
+        /**
+         * Get the nodes matching a segment in any of the given nodes, in order of precedence.
+         * For each node, an exact match takes precedence over a wildcard match.
+         *
+         * @param nodes The nodes to search, in order of precedence
+         * @param segment The segment to match
+         * @return The matching child nodes
+         */
+        static List<Node> children(List<Node> nodes, String segment) {
+            if (nodes.size() == 1) { // Common case, where there are no wildcards
+                final Node node = nodes.get(0);
+                final Node exact = node.children.get(segment), wildcard = segment.equals(WILDCARD) ? null : node.children.get(WILDCARD);
+                if (wildcard == null) {
+                    return exact == null ? Collections.<Node>emptyList() : Collections.singletonList(exact);
+                }
+            }
+            final List<Node> ret = new ArrayList<>(nodes.size() * 2);
+            for (Node node : nodes) {
+                final Node exact = node.children.get(segment);
+                if (exact != null) {
+                    ret.add(exact);
+                }
+                if (!segment.equals(WILDCARD)) {
+                    final Node wildcard = node.children.get(WILDCARD);
+                    if (wildcard != null) {
+                        ret.add(wildcard);
+                    }
+                }
+            }
+            return ret;
+        }
+
+        /**
+         * Get the first defined value of any of the given nodes
+         */
+        static int value(List<Node> nodes) {
+            for (Node node : nodes) {
+                if (node.value != PERMISSION_UNDEFINED) {
+                    return node.value;
+                }
+            }
+            return PERMISSION_UNDEFINED;
+        }
+
+        boolean hasWildcards() {
+            if (children.containsKey(WILDCARD)) {
+                return true;
+            }
+            for (Node child : children.values()) {
+                if (child.hasWildcards()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        long getApproximateSize() {
+            long size = 16 + 48 + 16 * children.size(); // node, map, and table
+            for (Map.Entry<String, Node> child : children.entrySet()) {
+                size += 32 + 40 + 2 * child.getKey().length() + child.getValue().getApproximateSize(); // entry, key, and child
+            }
+            return size;
+        }
+    }
+
+    /**
+     * A builder for applying many changes to a tree at once. Nodes are copied the first time a change passes through them,
+     * and modified in place afterwards, so each touched node is copied at most once no matter how many values are set
+     * below it. Nodes that are not touched are shared with the tree the builder was created from.
+     */
+    public static class Builder {
+        private Node root;
+        private Object owner;
+
+        private Builder(Node root, Object owner) {
+            this.root = root;
+            this.owner = owner == null ? new Object() : owner;
+        }
+
+        /**
+         * Set the value of a single node.
+         *
+         * @param node The node path to change the value of
+         * @param value The value to set, or UNDEFINED to remove
+         * @return this
+         */
+        public Builder set(String node, int value) {
+            String[] parts = SPLIT_REGEX.split(node.toLowerCase());
+            this.root = this.root.mutableCopy(this.owner);
+            Node current = this.root;
+            for (String part : parts) {
+                final Node existing = current.children.get(part);
+                final Node child = existing == null ? new Node(new HashMap<String, Node>()) : existing.mutableCopy(this.owner);
+                child.owner = this.owner;
+                if (child != existing) {
+                    current.children.put(part, child);
+                }
+                current = child;
+            }
+            current.value = value;
+            return this;
+        }
+
+        /**
+         * Set the values of several nodes.
+         *
+         * @param values The values to set
+         * @return this
+         */
+        public Builder setAll(Map<String, Integer> values) {
+            for (Map.Entry<String, Integer> ent : values.entrySet()) {
+                set(ent.getKey(), ent.getValue());
+            }
+            return this;
+        }
+
+        /**
+         * Set the fallback value for any completely undefined nodes.
+         *
+         * @param value The value to set
+         * @return this
+         */
+        public Builder setDefaultValue(int value) {
+            this.root = this.root.mutableCopy(this.owner);
+            this.root.value = value;
+            return this;
+        }
+
+        /**
+         * Create a tree with the current values of this builder. The builder may continue to be used afterwards
+         * without affecting the returned tree.
+         *
+         * @return The new tree
+         */
+        public NodeTree build() {
+            this.owner = new Object(); // Nodes in the built tree can no longer be modified in place
+            return new NodeTree(this.root);
+        }
+    }
+
+    /**
+     * A depth-first walk of a subtree that only builds the names of nodes it visits
+     *
+     * @param <N> The type of node being walked
+     */
+    private abstract static class SubtreeIterator<N> extends AbstractIterator<Map.Entry<String, Integer>> {
+        private final Deque<Frame<N>> stack = new ArrayDeque<>();
+        private Map.Entry<String, Integer> first;
+
+        SubtreeIterator(String path, N start) {
+            if (path != null && value(start) != PERMISSION_UNDEFINED) {
+                this.first = Maps.immutableEntry(path, value(start));
+            }
+            this.stack.push(new Frame<>(path, children(start)));
+        }
+
+        abstract int value(N node);
+
+        abstract Iterator<Map.Entry<String, N>> children(N node);
+
+        @Override
+        protected Map.Entry<String, Integer> computeNext() {
+            if (this.first != null) {
+                final Map.Entry<String, Integer> ret = this.first;
+                this.first = null;
+                return ret;
+            }
+
+            while (!this.stack.isEmpty()) {
+                final Frame<N> top = this.stack.peek();
+                if (!top.children.hasNext()) {
+                    this.stack.pop();
+                    continue;
+                }
+                final Map.Entry<String, N> child = top.children.next();
+                final String path = top.path == null ? child.getKey() : top.path + '.' + child.getKey();
+                this.stack.push(new Frame<>(path, children(child.getValue())));
+                final int value = value(child.getValue());
+                if (value != PERMISSION_UNDEFINED) {
+                    return Maps.immutableEntry(path, value);
+                }
+            }
+            return endOfData();
+        }
+
+        private static class Frame<N> {
+            private final String path;
+            private final Iterator<Map.Entry<String, N>> children;
+
+            private Frame(String path, Iterator<Map.Entry<String, N>> children) {
+                this.path = path;
+                this.children = children;
+            }
+        }
+    }
+
+    /**
+     * A node of a compiled tree. The values of a node's children are stored in the node itself, so children without
+     * children of their own (the majority of nodes in most permission sets) are not represented by an object at all.
+     */
+    private abstract static class CompiledNode {
+        static final CompiledNode EMPTY = new ArrayNode(new String[0], new int[0], null, -1);
+
+        /**
+         * @return The number of children of this node
+         */
+        abstract int size();
+
+        /**
+         * @return The lowercased, interned segment of a child
+         */
+        abstract String key(int index);
+
+        abstract int value(int index);
+
+        /**
+         * @return The compiled child, or null if the child has no children of its own
+         */
+        abstract CompiledNode child(int index);
+
+        /**
+         * @return The index of the child for the wildcard segment, used when no key matches, or -1 if none
+         */
+        abstract int wildcardIndex();
+
+        /**
+         * @return The index of the child whose segment matches a region of the given node, ignoring case, or -1 if none
+         */
+        abstract int indexOf(String node, int start, int end);
+
+        /**
+         * Compile the merged children of the given nodes, which are in order of precedence.
+         *
+         * @param nodes The nodes to merge
+         * @return The compiled node, or null if none of the nodes have children
+         */
+        static CompiledNode compile(List<Node> nodes) {
+            final TreeSet<String> segments = new TreeSet<>();
+            for (Node node : nodes) {
+                segments.addAll(node.children.keySet());
+            }
+            if (segments.isEmpty()) {
+                return null;
+            }
+            final String[] keys = segments.toArray(new String[segments.size()]);
+            final int[] values = new int[keys.length];
+            final CompiledNode[] children = new CompiledNode[keys.length];
+            boolean hasChildren = false;
+            int wildcard = -1;
+            for (int i = 0; i < keys.length; ++i) {
+                final List<Node> matching = Node.children(nodes, keys[i]);
+                values[i] = Node.value(matching);
+                children[i] = compile(matching);
+                hasChildren |= children[i] != null;
+                keys[i] = SEGMENT_INTERNER.intern(keys[i]);
+                if (keys[i].equals(WILDCARD)) {
+                    wildcard = i;
+                }
+            }
+            if (keys.length == 1) {
+                return new SingleNode(keys[0], values[0], children[0]);
+            }
+            return new ArrayNode(keys, values, hasChildren ? children : null, wildcard);
+        }
+
+        abstract long getApproximateSize();
+
+        Node thaw(Object owner) {
+            final Map<String, Node> children = new HashMap<>();
+            for (int i = 0; i < size(); ++i) {
+                final CompiledNode child = child(i);
+                final Node thawed = child == null ? new Node(new HashMap<String, Node>()) : child.thaw(owner);
+                thawed.value = value(i);
+                thawed.owner = owner;
+                children.put(key(i), thawed);
+            }
+            final Node ret = new Node(children);
+            ret.owner = owner;
+            return ret;
+        }
+
+        /**
+         * Perform a lookup matching the behaviour of the uncompiled tree, where the node is split with
+         * {@link String#split(String)} semantics (trailing empty segments are discarded)
+         *
+         * @param node The node to look up
+         * @param rootValue The value of the root of the tree
+         * @return The value of the node
+         */
+        int get(String node, int rootValue) {
+            int lastUndefinedVal = rootValue;
+            int limit = node.length();
+            while (limit > 0 && node.charAt(limit - 1) == '.') {
+                --limit;
+            }
+            if (limit == 0 && node.length() > 0) { // Only separators, so there are no segments to look up
+                return lastUndefinedVal;
+            }
+
+            CompiledNode currentNode = this;
+            int start = 0;
+            do {
+                if (currentNode == null) { // The previous segment was a leaf
+                    break;
+                }
+                int end = node.indexOf('.', start);
+                if (end == -1 || end > limit) {
+                    end = limit;
+                }
+                int index = currentNode.indexOf(node, start, end);
+                if (index < 0) {
+                    index = currentNode.wildcardIndex();
+                    if (index < 0) {
+                        break;
+                    }
+                }
+                final int value = currentNode.value(index);
+                if (Math.abs(value) >= Math.abs(lastUndefinedVal)) {
+                    lastUndefinedVal = value;
+                }
+                currentNode = currentNode.child(index);
+                start = end + 1;
+            } while (start <= limit);
+            return lastUndefinedVal;
+        }
+
+        /**
+         * Compare a stored segment to a region of a node, ignoring the case of the node.
+         * Consistent with {@link String#compareTo(String)} for lowercase input.
+         */
+        static int compareSegment(String key, String node, int start, int end) {
+            final int keyLength = key.length(), segmentLength = end - start;
+            final int limit = Math.min(keyLength, segmentLength);
+            for (int i = 0; i < limit; ++i) {
+                final char keyChar = key.charAt(i), nodeChar = Character.toLowerCase(node.charAt(start + i));
+                if (keyChar != nodeChar) {
+                    return keyChar - nodeChar;
+                }
+            }
+            return keyLength - segmentLength;
+        }
+    }
+
+    /**
+     * A compiled node with any number of children, stored in sorted parallel arrays
+     */
+    private static final class ArrayNode extends CompiledNode {
+        /**
+         * Lowercased, interned segments, sorted by {@link String#compareTo(String)}
+         */
+        private final String[] keys;
+        private final int[] values;
+        /**
+         * Compiled children, or null if no child has children of its own
+         */
+        private final CompiledNode[] children;
+        private final int wildcard;
+
+        private ArrayNode(String[] keys, int[] values, CompiledNode[] children, int wildcard) {
+            this.keys = keys;
+            this.values = values;
+            this.children = children;
+            this.wildcard = wildcard;
+        }
+
+        @Override
+        int size() {
+            return this.keys.length;
+        }
+
+        @Override
+        String key(int index) {
+            return this.keys[index];
+        }
+
+        @Override
+        int value(int index) {
+            return this.values[index];
+        }
+
+        @Override
+        CompiledNode child(int index) {
+            return this.children == null ? null : this.children[index];
+        }
+
+        @Override
+        int wildcardIndex() {
+            return this.wildcard;
+        }
+
+        @Override
+        int indexOf(String node, int start, int end) {
+            int low = 0, high = this.keys.length - 1;
+            while (low <= high) {
+                final int mid = (low + high) >>> 1;
+                final int cmp = compareSegment(this.keys[mid], node, start, end);
+                if (cmp < 0) {
+                    low = mid + 1;
+                } else if (cmp > 0) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        long getApproximateSize() {
+            long size = 32 + 2 * (16 + 4 * this.keys.length); // node, keys, and values
+            if (this.children != null) {
+                size += 16 + 4 * this.children.length;
+                for (CompiledNode child : this.children) {
+                    if (child != null) {
+                        size += child.getApproximateSize();
+                    }
+                }
+            }
+            return size;
+        }
     }
+
+    /**
+     * A compiled node with exactly one child, which is the most common shape for intermediate nodes
+     */
+    private static final class SingleNode extends CompiledNode {
+        private final String key;
+        private final int value;
+        private final CompiledNode child;
+
+        private SingleNode(String key, int value, CompiledNode child) {
+            this.key = key;
+            this.value = value;
+            this.child = child;
+        }
+
+        @Override
+        int size() {
+            return 1;
+        }
+
+        @Override
+        String key(int index) {
+            return this.key;
+        }
+
+        @Override
+        int value(int index) {
+            return this.value;
+        }
+
+        @Override
+        CompiledNode child(int index) {
+            return this.child;
+        }
+
+        @Override
+        int wildcardIndex() {
+            return this.key.equals(WILDCARD) ? 0 : -1;
+        }
+
+        @Override
+        int indexOf(String node, int start, int end) {
+            return compareSegment(this.key, node, start, end) == 0 ? 0 : -1;
+        }
+
+        @Override
+        long getApproximateSize() {
+            return 24 + (this.child == null ? 0 : this.child.getApproximateSize());
+        }
+    }
+
+    /**
+     * A child of a compiled node, paired with its value
+     */
+    private static final class CompiledChild {
+        private final int value;
+        private final CompiledNode node;
+
+        private CompiledChild(int value, CompiledNode node) {
+            this.value = value;
+            this.node = node;
+        }
+    }
+
 }
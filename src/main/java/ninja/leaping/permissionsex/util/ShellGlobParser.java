@@ -18,21 +18,104 @@ package ninja.leaping.permissionsex.util;
 
 import com.google.common.collect.ImmutableList;
 
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Expands shell-style brace alternatives in a string. For example, {@code worldedit.{jumpto,thru}.{tool,command}}
+ * expands to four permissions. Alternatives may be nested, and may be empty.
+ *
+ * Braces without a matching close brace, or without any alternatives (such as {@code {a}}), are kept literally.
+ *
+ * Since each group multiplies the number of results, expansion stops at {@link #MAX_EXPANSIONS} results.
+ */
 public class ShellGlobParser {
+    /**
+     * The largest number of strings a single input may expand to.
+     */
+    public static final int MAX_EXPANSIONS = 1024;
+
     private final String input;
 
     private ShellGlobParser(String input) {
         this.input = input;
     }
 
+    /**
+     * Expand all alternatives in a string.
+     *
+     * @param input The string to expand
+     * @return Every expansion of the input, in order
+     * @throws IllegalArgumentException if the input expands to more than {@link #MAX_EXPANSIONS} strings
+     */
     public static List<String> parseFrom(String input) {
         return ImmutableList.copyOf(new ShellGlobParser(input).parse());
     }
 
+    /**
+     * Return whether a string contains any characters that could be expanded. Any string for which this returns false
+     * expands to only itself.
+     *
+     * @param input The string to check
+     * @return Whether the string may expand to other strings
+     */
+    public static boolean isGlob(String input) {
+        return input.indexOf('{') != -1;
+    }
+
     public Iterable<String> parse() {
-        // TODO: Implement for these {cool,awesome} things
-        return ImmutableList.of();
+        final List<String> ret = new ArrayList<>();
+        expand(input, 0, ret);
+        return ret;
+    }
+
+    /**
+     * Expand the first brace group at or after {@code searchFrom}, then any following groups in each expansion.
+     */
+    private static void expand(String input, int searchFrom, List<String> output) {
+        final int open = input.indexOf('{', searchFrom);
+        if (open == -1) {
+            if (output.size() >= MAX_EXPANSIONS) {
+                throw new IllegalArgumentException("Input expands to more than " + MAX_EXPANSIONS + " strings");
+            }
+            output.add(input);
+            return;
+        }
+
+        final List<Integer> separators = new ArrayList<>();
+        int depth = 0, close = -1;
+        for (int i = open + 1; i < input.length() && close == -1; ++i) {
+            switch (input.charAt(i)) {
+                case '{':
+                    ++depth;
+                    break;
+                case '}':
+                    if (depth == 0) {
+                        close = i;
+                    } else {
+                        --depth;
+                    }
+                    break;
+                case ',':
+                    if (depth == 0) {
+                        separators.add(i);
+                    }
+                    break;
+            }
+        }
+
+        if (close == -1 || separators.isEmpty()) { // Not a list of alternatives, but there may be some inside
+            expand(input, open + 1, output);
+            return;
+        }
+
+        final String prefix = input.substring(0, open), suffix = input.substring(close + 1);
+        separators.add(close);
+        int start = open + 1;
+        for (int separator : separators) {
+            // Alternatives may contain further groups, which are expanded starting from the same position
+            expand(prefix + input.substring(start, separator) + suffix, open, output);
+            start = separator + 1;
+        }
     }
 }
@@ -23,6 +23,7 @@ import ninja.leaping.permissionsex.util.Combinations;
 import org.junit.Test;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
@@ -53,4 +54,43 @@ public class CombinationsTest {
 		assertFalse(testIt.hasNext());
 	}
 
+	/**
+	 * For every subset of a set of values as candidates, matching must select exactly the candidates
+	 * the full iteration would produce, in the same order.
+	 */
+	@Test
+	public void testMatchingFollowsIterationOrder() {
+		final Set<String> values = set("a", "b", "c", "d");
+		final Combinations<String> combinations = Combinations.of(values);
+		final List<Set<String>> all = new ArrayList<>();
+		Iterators.addAll(all, combinations.iterator());
+		assertEquals(16, all.size());
+
+		for (int selection = 0; selection < 1 << all.size(); ++selection) { // Every selection of combinations
+			final List<Set<String>> candidates = new ArrayList<>();
+			for (int i = 0; i < all.size(); ++i) {
+				if ((selection & (1 << i)) != 0) {
+					candidates.add(all.get(all.size() - 1 - i)); // Present candidates in reverse order
+				}
+			}
+			candidates.add(set("a", "z")); // Never a subset
+			final List<Set<String>> expected = new ArrayList<>();
+			for (Set<String> combination : all) {
+				if (candidates.contains(combination)) {
+					expected.add(combination);
+				}
+			}
+			assertEquals(expected, combinations.matching(candidates));
+		}
+	}
+
+	@Test
+	public void testMatchingEqualSets() {
+		final Set<Integer> withDuplicate = new HashSet<>();
+		withDuplicate.add(2);
+		withDuplicate.add(1);
+		assertEquals(ImmutableList.<Set<Integer>>of(set(1, 2), set(2), ImmutableSet.<Integer>of()),
+				Combinations.of(set(1, 2, 3)).matching(ImmutableList.<Set<Integer>>of(set(2), withDuplicate, set(1, 2), set(4), ImmutableSet.<Integer>of())));
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,107 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SaveSchedulerTest {
+    private static class CountingSaver implements Callable<Void> {
+        private final AtomicInteger saves = new AtomicInteger();
+
+        @Override
+        public Void call() throws Exception {
+            saves.incrementAndGet();
+            return null;
+        }
+    }
+
+    @Test
+    public void testRequestsCoalesced() throws Exception {
+        final CountingSaver saver = new CountingSaver();
+        final SaveScheduler scheduler = new SaveScheduler("test save", saver, 200, 10000, TimeUnit.MILLISECONDS);
+        final List<ListenableFuture<Void>> requests = new ArrayList<>();
+        for (int i = 0; i < 20; ++i) {
+            requests.add(scheduler.requestSave());
+        }
+        for (ListenableFuture<Void> request : requests) {
+            request.get(5, TimeUnit.SECONDS);
+        }
+        assertEquals(1, saver.saves.get());
+        scheduler.close();
+    }
+
+    @Test
+    public void testMaximumDelay() throws Exception {
+        final CountingSaver saver = new CountingSaver();
+        final SaveScheduler scheduler = new SaveScheduler("test save", saver, 1, 1, TimeUnit.HOURS);
+        final ListenableFuture<Void> first = scheduler.requestSave();
+        assertFalse(first.isDone());
+        final ListenableFuture<Void> second = scheduler.saveNow();
+        second.get(5, TimeUnit.SECONDS);
+        assertTrue(first.isDone());
+        assertEquals(1, saver.saves.get());
+
+        final SaveScheduler capped = new SaveScheduler("test save", saver, 1, 0, TimeUnit.HOURS);
+        capped.requestSave().get(5, TimeUnit.SECONDS);
+        assertEquals(2, saver.saves.get());
+        scheduler.close();
+        capped.close();
+    }
+
+    @Test
+    public void testCloseFlushes() throws Exception {
+        final CountingSaver saver = new CountingSaver();
+        final SaveScheduler scheduler = new SaveScheduler("test save", saver, 1, 1, TimeUnit.HOURS);
+        final ListenableFuture<Void> request = scheduler.requestSave();
+        scheduler.close();
+        assertTrue(request.isDone());
+        assertEquals(1, saver.saves.get());
+        try {
+            scheduler.requestSave().get();
+            fail("Closed scheduler accepted a request");
+        } catch (ExecutionException expected) {
+        }
+    }
+
+    @Test
+    public void testFailurePropagated() throws Exception {
+        final SaveScheduler scheduler = new SaveScheduler("test save", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                throw new IOException("Disk full");
+            }
+        }, 0, 0, TimeUnit.MILLISECONDS);
+        try {
+            scheduler.requestSave().get(5, TimeUnit.SECONDS);
+            fail("Failed save completed successfully");
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        scheduler.close();
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.file;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.permissionsex.data.ImmutableOptionSubjectData;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class BinarySnapshotTest {
+    private static final Set<Map.Entry<String, String>> GLOBAL = ImmutableSet.of();
+    private static final Set<Map.Entry<String, String>> NETHER = ImmutableSet.of(Maps.immutableEntry("world", "nether"));
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static ImmutableOptionSubjectData admin() {
+        return new FileOptionSubjectData()
+                .setPermission(GLOBAL, "test.admin", 1)
+                .setPermission(GLOBAL, "test.denied", -1)
+                .setPermission(NETHER, "test.nether", 5)
+                .setOption(NETHER, "prefix", "[Nether Admin]")
+                .addParent(GLOBAL, "group", "default")
+                .setDefaultValue(NETHER, -1);
+    }
+
+    private File writeSnapshot(long checksum) throws IOException {
+        final File file = new File(tempFolder.newFolder(), "permissions.json.snapshot");
+        final BinarySnapshot.Writer writer = new BinarySnapshot.Writer();
+        writer.add("groups", "admin", admin());
+        writer.add("groups", "default", new FileOptionSubjectData().setOption(GLOBAL, "prefix", "[D]"));
+        writer.add("users", "ünïcode", new FileOptionSubjectData().addParent(NETHER, "group", "admin"));
+        writer.write(file, checksum);
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        final BinarySnapshot snapshot = BinarySnapshot.open(writeSnapshot(42), 42);
+        assertNotNull(snapshot);
+        assertEquals(ImmutableSet.of("groups", "users"), snapshot.getSections());
+        assertEquals(ImmutableSet.of("admin", "default"), snapshot.getIdentifiers("groups"));
+        assertTrue(snapshot.contains("users", "ünïcode"));
+        assertNull(snapshot.get("groups", "missing"));
+
+        final ImmutableOptionSubjectData expected = admin(), actual = snapshot.get("groups", "admin");
+        assertEquals(expected.getAllPermissions(), actual.getAllPermissions());
+        assertEquals(expected.getAllOptions(), actual.getAllOptions());
+        assertEquals(expected.getAllParents(), actual.getAllParents());
+        assertEquals(expected.getAllDefaultValues(), actual.getAllDefaultValues());
+        assertEquals(ImmutableList.of(Maps.immutableEntry("group", "admin")), snapshot.get("users", "ünïcode").getParents(NETHER));
+        assertEquals(ImmutableMap.of("prefix", "[D]"), snapshot.get("groups", "default").getOptions(GLOBAL));
+    }
+
+    @Test
+    public void testChecksumMismatchIgnored() throws IOException {
+        assertNull(BinarySnapshot.open(writeSnapshot(42), 43));
+        assertNull(BinarySnapshot.open(new File(tempFolder.getRoot(), "missing.snapshot"), 42));
+    }
+
+    @Test
+    public void testCurrencyCheckedFromHeader() throws IOException {
+        final File file = writeSnapshot(42);
+        assertTrue(BinarySnapshot.isCurrent(file, 42));
+        assertFalse(BinarySnapshot.isCurrent(file, 43));
+        assertFalse(BinarySnapshot.isCurrent(new File(tempFolder.getRoot(), "missing.snapshot"), 42));
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(6);
+        }
+        assertFalse(BinarySnapshot.isCurrent(file, 42));
+    }
+
+    @Test(expected = IOException.class)
+    public void testCorruptionDetected() throws IOException {
+        final File file = writeSnapshot(42);
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.seek(out.length() - 1);
+            final int last = out.read();
+            out.seek(out.length() - 1);
+            out.write(last ^ 0xFF);
+        }
+        BinarySnapshot.open(file, 42);
+    }
+}
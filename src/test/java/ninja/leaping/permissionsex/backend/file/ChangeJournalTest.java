@@ -0,0 +1,126 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.file;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ChangeJournalTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final Object DATA = ImmutableList.of(ImmutableMap.of(
+            "permissions", ImmutableMap.of("test.node", 1),
+            "options", ImmutableMap.of("prefix", "[A]")));
+
+    @Test
+    public void testReplay() throws Exception {
+        final File file = new File(tempFolder.newFolder(), "permissions.json.journal");
+        final ChangeJournal journal = new ChangeJournal(file);
+        assertTrue(journal.replay().getEntries().isEmpty());
+        journal.open();
+        journal.append("group", "admin", DATA).get();
+        journal.append("user", "gone", null).get();
+        assertEquals(2, journal.size());
+        journal.close();
+
+        final List<ChangeJournal.Entry> entries = new ChangeJournal(file).replay().getEntries();
+        assertEquals(2, entries.size());
+        assertEquals("group", entries.get(0).getType());
+        assertEquals("admin", entries.get(0).getIdentifier());
+        assertEquals(DATA, entries.get(0).getData());
+        assertEquals("gone", entries.get(1).getIdentifier());
+        assertNull(entries.get(1).getData());
+    }
+
+    @Test
+    public void testTornEntrySkipped() throws Exception {
+        final File file = new File(tempFolder.newFolder(), "permissions.json.journal");
+        final ChangeJournal journal = new ChangeJournal(file);
+        journal.open();
+        journal.append("group", "admin", DATA).get();
+        journal.close();
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            out.write("{\"type\":\"group\",\"identi".getBytes("UTF-8"));
+        }
+
+        final ChangeJournal.Replay replay = new ChangeJournal(file).replay();
+        assertEquals(1, replay.getEntries().size());
+        assertEquals(1, replay.getSkipped());
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        final File file = new File(tempFolder.newFolder(), "permissions.json.journal");
+        final ChangeJournal journal = new ChangeJournal(file);
+        journal.open();
+        journal.append("group", "first", DATA).get();
+        journal.beginCompaction();
+        assertEquals(0, journal.size());
+        journal.append("group", "second", DATA).get();
+
+        // A crash before the compaction finishes keeps every entry, in order
+        List<ChangeJournal.Entry> entries = new ChangeJournal(file).replay().getEntries();
+        assertEquals(2, entries.size());
+        assertEquals("first", entries.get(0).getIdentifier());
+        assertEquals("second", entries.get(1).getIdentifier());
+
+        // A failed compaction is retried along with the next one
+        journal.beginCompaction();
+        journal.append("group", "third", DATA).get();
+        assertEquals(3, new ChangeJournal(file).replay().getEntries().size());
+
+        journal.finishCompaction();
+        entries = new ChangeJournal(file).replay().getEntries();
+        assertEquals(1, entries.size());
+        assertEquals("third", entries.get(0).getIdentifier());
+        journal.close();
+    }
+
+    @Test
+    public void testAppendsWrittenInOrder() throws Exception {
+        final File file = new File(tempFolder.newFolder(), "permissions.json.journal");
+        final ChangeJournal journal = new ChangeJournal(file);
+        journal.open();
+        final List<ListenableFuture<Void>> appended = new ArrayList<>();
+        for (int i = 0; i < 100; ++i) {
+            appended.add(journal.append("user", "user" + i, DATA));
+        }
+        for (ListenableFuture<Void> future : appended) {
+            future.get();
+        }
+
+        final List<ChangeJournal.Entry> entries = new ChangeJournal(file).replay().getEntries();
+        assertEquals(100, entries.size());
+        for (int i = 0; i < 100; ++i) {
+            assertEquals("user" + i, entries.get(i).getIdentifier());
+        }
+        journal.close();
+    }
+}
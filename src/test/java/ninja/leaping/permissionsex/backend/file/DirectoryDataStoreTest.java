@@ -0,0 +1,132 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.file;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListenableFuture;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.DataStoreFactories;
+import ninja.leaping.permissionsex.data.ImmutableOptionSubjectData;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DirectoryDataStoreTest extends PermissionsExTest {
+    private static final Set<Map.Entry<String, String>> GLOBAL = ImmutableSet.of();
+
+    @Override
+    protected void populate(ConfigurationNode node) {
+        node.getNode("default-backend").setValue("test");
+        node.getNode("backends", "test", "type").setValue("directory");
+    }
+
+    private DataStore openStore() throws Exception {
+        final ConfigurationNode config = SimpleConfigurationNode.root();
+        config.getNode("directory").setValue("permissions");
+        final DataStore store = DataStoreFactories.get("directory").get().createDataStore("test", config);
+        store.initialize(getManager());
+        return store;
+    }
+
+    @Test
+    public void testSubjectsStoredSeparately() throws Exception {
+        final DataStore store = openStore();
+        final String odd = "group/with:odd chars";
+        store.setData("group", "admin", store.getData("group", "admin", null)
+                .setPermission(GLOBAL, "test.admin", 1)
+                .setOption(ImmutableSet.of(Maps.immutableEntry("world", "nether")), "prefix", "[A]")).get();
+        store.setData("group", odd, store.getData("group", odd, null).addParent(GLOBAL, "group", "admin")).get();
+        store.close();
+
+        final DataStore reopened = openStore();
+        assertTrue(reopened.isRegistered("group", "admin"));
+        assertTrue(reopened.isRegistered("group", odd));
+        assertFalse(reopened.isRegistered("group", "missing"));
+        assertEquals(ImmutableSet.of("admin", odd), ImmutableSet.copyOf(reopened.getAllIdentifiers("group")));
+        assertTrue(reopened.getRegisteredTypes().contains("group"));
+
+        final ImmutableOptionSubjectData admin = reopened.getData("group", "admin", null);
+        assertEquals(Integer.valueOf(1), admin.getPermissions(GLOBAL).get("test.admin"));
+        assertEquals("[A]", admin.getOptions(ImmutableSet.of(Maps.immutableEntry("world", "nether"))).get("prefix"));
+        assertEquals(ImmutableList.of(Maps.immutableEntry("group", "admin")), reopened.getData("group", odd, null).getParents(GLOBAL));
+
+        reopened.setData("group", odd, null).get();
+        assertFalse(reopened.isRegistered("group", odd));
+        assertEquals(ImmutableSet.of("admin"), ImmutableSet.copyOf(reopened.getAllIdentifiers("group")));
+        reopened.close();
+    }
+
+    @Test
+    public void testIdentifiersDifferingInCase() throws Exception {
+        final DataStore store = openStore();
+        for (String identifier : new String[] {"Admin", "admin", "ADMIN", "ad*min"}) {
+            store.setData("group", identifier, store.getData("group", identifier, null).setOption(GLOBAL, "prefix", identifier)).get();
+        }
+        store.close();
+
+        final Set<String> fileNames = new HashSet<>();
+        for (String fileName : new File(getManager().getBaseDirectory(), "permissions/group").list()) {
+            assertFalse(fileName, fileName.contains("*"));
+            assertTrue(fileName, fileNames.add(fileName.toLowerCase(Locale.ROOT)));
+        }
+        assertEquals(4, fileNames.size());
+
+        final DataStore reopened = openStore();
+        assertEquals(ImmutableSet.of("Admin", "admin", "ADMIN", "ad*min"), ImmutableSet.copyOf(reopened.getAllIdentifiers("group")));
+        for (String identifier : new String[] {"Admin", "admin", "ADMIN", "ad*min"}) {
+            assertEquals(identifier, reopened.getData("group", identifier, null).getOptions(GLOBAL).get("prefix"));
+        }
+        reopened.close();
+    }
+
+    @Test
+    public void testQueuedWritesVisibleToReads() throws Exception {
+        final DataStore store = openStore();
+        final List<ListenableFuture<ImmutableOptionSubjectData>> writes = new ArrayList<>();
+        for (int i = 0; i < 50; ++i) {
+            final String identifier = "user" + i;
+            writes.add(store.setData("user", identifier, store.getData("user", identifier, null).setOption(GLOBAL, "index", String.valueOf(i))));
+            assertTrue(store.isRegistered("user", identifier));
+            assertEquals(String.valueOf(i), store.getData("user", identifier, null).getOptions(GLOBAL).get("index"));
+        }
+        assertEquals(50, ImmutableSet.copyOf(store.getAllIdentifiers("user")).size());
+        assertTrue(store.getRegisteredTypes().contains("user"));
+
+        writes.add(store.setData("user", "user0", null));
+        assertFalse(store.isRegistered("user", "user0"));
+        assertFalse(ImmutableSet.copyOf(store.getAllIdentifiers("user")).contains("user0"));
+        for (ListenableFuture<ImmutableOptionSubjectData> write : writes) {
+            write.get();
+        }
+        assertFalse(store.isRegistered("user", "user0"));
+        assertTrue(store.isRegistered("user", "user1"));
+        store.close();
+    }
+}
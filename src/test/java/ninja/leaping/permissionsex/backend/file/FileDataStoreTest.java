@@ -0,0 +1,105 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.file;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.configurate.SimpleConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import ninja.leaping.permissionsex.backend.DataStore;
+import ninja.leaping.permissionsex.backend.DataStoreFactories;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class FileDataStoreTest extends PermissionsExTest {
+    private static final Set<Map.Entry<String, String>> GLOBAL = ImmutableSet.of();
+
+    @Override
+    protected void populate(ConfigurationNode node) {
+        node.getNode("default-backend").setValue("test");
+        node.getNode("backends", "test", "type").setValue("file");
+        node.getNode("backends", "test", "file").setValue("permissions.json");
+    }
+
+    /**
+     * Open a lazily loaded store. Saves are delayed for far longer than any test runs unless requested by closing
+     * the store, so a store that is not closed behaves like one lost to a crash.
+     */
+    private DataStore openLazyStore() throws Exception {
+        final ConfigurationNode config = SimpleConfigurationNode.root();
+        config.getNode("file").setValue("lazy.json");
+        config.getNode("lazy-load").setValue(true);
+        config.getNode("save-debounce").setValue(3600000);
+        config.getNode("save-max-delay").setValue(3600000);
+        final DataStore store = DataStoreFactories.get("file").get().createDataStore("lazy", config);
+        store.initialize(getManager());
+        return store;
+    }
+
+    @Test
+    public void testLazyChangesSaved() throws Exception {
+        final DataStore store = openLazyStore(); // Nothing to index yet, so this creates the file
+        store.setData("group", "admin", store.getData("group", "admin", null).setPermission(GLOBAL, "test.admin", 1)).get();
+        store.setData("group", "removed", store.getData("group", "removed", null).setOption(GLOBAL, "prefix", "[R]")).get();
+        store.close();
+
+        final DataStore lazy = openLazyStore();
+        assertEquals(Integer.valueOf(1), lazy.getData("group", "admin", null).getPermissions(GLOBAL).get("test.admin"));
+        lazy.setData("group", "mod", lazy.getData("group", "mod", null).addParent(GLOBAL, "group", "admin")).get();
+        lazy.setData("group", "removed", null).get();
+
+        // Unsaved changes are merged with the subjects in the file
+        assertTrue(ImmutableSet.copyOf(lazy.getAllIdentifiers("group")).containsAll(ImmutableSet.of("admin", "mod")));
+        assertFalse(ImmutableSet.copyOf(lazy.getAllIdentifiers("group")).contains("removed"));
+        assertFalse(lazy.isRegistered("group", "removed"));
+        lazy.close();
+
+        final DataStore reopened = openLazyStore();
+        assertEquals(Integer.valueOf(1), reopened.getData("group", "admin", null).getPermissions(GLOBAL).get("test.admin"));
+        assertEquals(ImmutableList.of(Maps.immutableEntry("group", "admin")), reopened.getData("group", "mod", null).getParents(GLOBAL));
+        assertTrue(reopened.isRegistered("group", "mod"));
+        assertFalse(reopened.isRegistered("group", "removed"));
+        assertFalse(ImmutableSet.copyOf(reopened.getAllIdentifiers("group")).contains("removed"));
+        reopened.close();
+    }
+
+    @Test
+    public void testLazyChangesReplayedFromJournal() throws Exception {
+        final DataStore store = openLazyStore();
+        store.setData("group", "admin", store.getData("group", "admin", null).setPermission(GLOBAL, "test.admin", 1)).get();
+        store.setData("group", "removed", store.getData("group", "removed", null).setOption(GLOBAL, "prefix", "[R]")).get();
+        store.close();
+
+        final DataStore crashed = openLazyStore();
+        crashed.setData("group", "admin", crashed.getData("group", "admin", null).setPermission(GLOBAL, "test.admin", -1)).get();
+        crashed.setData("group", "removed", null).get();
+        // Never closed, so the changes only exist in the journal
+
+        final DataStore recovered = openLazyStore();
+        assertEquals(Integer.valueOf(-1), recovered.getData("group", "admin", null).getPermissions(GLOBAL).get("test.admin"));
+        assertFalse(recovered.isRegistered("group", "removed"));
+        assertTrue(ImmutableSet.copyOf(recovered.getAllIdentifiers("group")).contains("admin"));
+        assertFalse(ImmutableSet.copyOf(recovered.getAllIdentifiers("group")).contains("removed"));
+        recovered.close();
+    }
+}
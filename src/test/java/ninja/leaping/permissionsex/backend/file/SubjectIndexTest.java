@@ -0,0 +1,126 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.backend.file;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SubjectIndexTest {
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    private static final String CONTENTS = "{\n" +
+            "    \"schema-version\": 2,\n" +
+            "    \"groups\": {\n" +
+            "        \"admin\": [{\"permissions\": {\"test.admin\": 1, \"ünïcode\": -1}}],\n" +
+            "        \"default\": [{\"options\": {\"prefix\": \"[D]\"}, \"permissions-default\": 1}]\n" +
+            "    },\n" +
+            "    \"users\": {\n" +
+            "        \"8a6c8f1e-6f6a-4c4a-9c2e-4e2b1a9c5d11\": [{\"parents\": [\"group:admin\"]}]\n" +
+            "    }\n" +
+            "}\n";
+
+    private File writeFile() throws IOException {
+        final File file = new File(tempFolder.newFolder(), "permissions.json");
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(CONTENTS.getBytes("UTF-8"));
+        }
+        return file;
+    }
+
+    @Test
+    public void testIndex() throws IOException {
+        final File file = writeFile();
+        final SubjectIndex index = SubjectIndex.build(file);
+        assertEquals(2, ((Number) index.getValues().get("schema-version")).intValue());
+        assertEquals(ImmutableSet.of("groups", "users"), index.getSections());
+        assertEquals(ImmutableSet.of("admin", "default"), index.getIdentifiers("groups"));
+        assertTrue(index.contains("users", "8a6c8f1e-6f6a-4c4a-9c2e-4e2b1a9c5d11"));
+        assertFalse(index.contains("groups", "missing"));
+
+        assertEquals(ImmutableList.of(ImmutableMap.of("permissions", ImmutableMap.of("test.admin", 1, "ünïcode", -1))),
+                index.read(file, "groups", "admin"));
+        assertEquals(ImmutableList.of(ImmutableMap.of("options", ImmutableMap.of("prefix", "[D]"), "permissions-default", 1)),
+                index.read(file, "groups", "default"));
+        assertNull(index.read(file, "groups", "missing"));
+    }
+
+    @Test
+    public void testWriteChanges() throws IOException {
+        final File file = writeFile();
+        final SubjectIndex index = SubjectIndex.build(file);
+        final File target = new File(file.getParentFile(), "permissions.json.tmp");
+        final Map<String, Object> groupChanges = new HashMap<>();
+        groupChanges.put("default", null);
+        groupChanges.put("mod", ImmutableList.of(ImmutableMap.of("parents", ImmutableList.of("group:admin"))));
+        final Map<String, Map<String, Object>> changes = new HashMap<>();
+        changes.put("groups", groupChanges);
+        changes.put("users", Collections.<String, Object>emptyMap());
+        index.write(file, target, changes);
+
+        final SubjectIndex written = SubjectIndex.build(target);
+        assertEquals(2, ((Number) written.getValues().get("schema-version")).intValue());
+        assertEquals(ImmutableSet.of("admin", "mod"), written.getIdentifiers("groups"));
+        assertEquals(index.read(file, "groups", "admin"), written.read(target, "groups", "admin"));
+        assertEquals(ImmutableList.of(ImmutableMap.of("parents", ImmutableList.of("group:admin"))), written.read(target, "groups", "mod"));
+        assertEquals(index.read(file, "users", "8a6c8f1e-6f6a-4c4a-9c2e-4e2b1a9c5d11"),
+                written.read(target, "users", "8a6c8f1e-6f6a-4c4a-9c2e-4e2b1a9c5d11"));
+
+        // Formatted like the file backend's loader, so copied subjects line up with written ones
+        final String contents = new String(Files.readAllBytes(target.toPath()), "UTF-8");
+        assertTrue(contents.contains("    \"schema-version\": 2"));
+        assertTrue(contents.contains("        \"mod\": ["));
+    }
+
+    @Test
+    public void testModifiedFileRefused() throws IOException {
+        final File file = writeFile();
+        final SubjectIndex index = SubjectIndex.build(file);
+        assertTrue(index.isCurrent(file));
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(CONTENTS.replace("admin", "administrator").getBytes("UTF-8"));
+        }
+        assertFalse(index.isCurrent(file));
+
+        try {
+            index.read(file, "groups", "default");
+            fail("Read from a modified file");
+        } catch (IOException expected) {
+        }
+        final File target = new File(file.getParentFile(), "permissions.json.tmp");
+        try {
+            index.write(file, target, Collections.<String, Map<String, Object>>emptyMap());
+            fail("Copied from a modified file");
+        } catch (IOException expected) {
+        }
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class ContextSetTest {
+
+    @Test
+    public void testInterned() {
+        final Set<Map.Entry<String, String>> contexts = new HashSet<>();
+        contexts.add(Maps.immutableEntry("world", "nether"));
+        contexts.add(Maps.immutableEntry("server-tag", "lobby"));
+        final ContextSet first = ContextSet.of(contexts);
+        final ContextSet second = ContextSet.of(ImmutableSet.of(Maps.immutableEntry("server-tag", "lobby"), Maps.immutableEntry("world", "nether")));
+
+        assertSame(first, second);
+        assertSame(first, ContextSet.of(first));
+        assertSame(ContextSet.EMPTY, ContextSet.of(ImmutableSet.<Map.Entry<String, String>>of()));
+        assertNotSame(first, ContextSet.of(ImmutableSet.of(Maps.immutableEntry("world", "nether"))));
+    }
+
+    @Test
+    public void testEqualToOtherSets() {
+        final Set<Map.Entry<String, String>> contexts = ImmutableSet.of(Maps.immutableEntry("world", "nether"));
+        final ContextSet set = ContextSet.of(contexts);
+
+        assertEquals(contexts, set);
+        assertEquals(set, contexts);
+        assertEquals(contexts.hashCode(), set.hashCode());
+        assertTrue(set.contains(Maps.immutableEntry("world", "nether")));
+        assertFalse(set.contains(Maps.immutableEntry("world", "end")));
+    }
+}
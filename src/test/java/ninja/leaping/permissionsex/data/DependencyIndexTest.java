@@ -0,0 +1,86 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class DependencyIndexTest extends PermissionsExTest {
+    private static final Set<Map.Entry<String, String>> GLOBAL = ImmutableSet.of();
+    private static final Set<Map.Entry<String, String>> WORLD = ImmutableSet.of(Maps.immutableEntry("world", "nether"));
+
+    @Override
+    protected void populate(ConfigurationNode node) {
+        node.getNode("default-backend").setValue("test");
+        node.getNode("backends", "test", "type").setValue("memory");
+    }
+
+    private void setGroupPermission(String group, String permission, int value) throws Exception {
+        final SubjectCache groups = getManager().getSubjects("group");
+        groups.update(group, groups.getData(group, null).setPermission(GLOBAL, permission, value)).get();
+    }
+
+    private void addParent(String type, String identifier, String parent) throws Exception {
+        final SubjectCache cache = getManager().getSubjects(type);
+        cache.update(identifier, cache.getData(identifier, null).addParent(GLOBAL, "group", parent)).get();
+    }
+
+    @Test
+    public void testTransitiveDependentsRebaked() throws Exception {
+        final PermissionsEx pex = getManager();
+        setGroupPermission("grandparent", "test.permission", 1);
+        addParent("group", "parent", "grandparent");
+        addParent("user", "child", "parent");
+
+        final CalculatedSubject child = pex.getCalculatedSubject("user", "child");
+        final CalculatedSubject unrelated = pex.getCalculatedSubject("user", "unrelated");
+        assertEquals(1, child.getPermission(GLOBAL, "test.permission"));
+        assertEquals(1, child.getPermission(WORLD, "test.permission"));
+        assertEquals(0, unrelated.getPermission(GLOBAL, "test.permission"));
+
+        setGroupPermission("grandparent", "test.permission", -1);
+        assertFalse(child.getActiveContexts().contains(GLOBAL));
+        assertFalse(child.getActiveContexts().contains(WORLD));
+        assertTrue(unrelated.getActiveContexts().contains(GLOBAL));
+        assertEquals(-1, child.getPermission(GLOBAL, "test.permission"));
+    }
+
+    @Test
+    public void testListenersKeptAcrossChanges() throws Exception {
+        final PermissionsEx pex = getManager();
+        setGroupPermission("parent", "test.permission", 1);
+        addParent("user", "child", "parent");
+
+        final CalculatedSubject child = pex.getCalculatedSubject("user", "child");
+        final long changes = pex.getDependencyIndex().getChangeCount();
+        for (int value : new int[] {1, -1, 1, -1}) {
+            setGroupPermission("parent", "test.permission", value);
+            System.gc(); // Dependents nothing refers to any more may be dropped, but not those child depends on
+            assertEquals(value, child.getPermission(GLOBAL, "test.permission"));
+        }
+        assertTrue(pex.getDependencyIndex().getChangeCount() > changes);
+    }
+}
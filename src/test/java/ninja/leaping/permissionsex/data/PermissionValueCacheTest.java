@@ -0,0 +1,80 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ImmutableMap;
+import ninja.leaping.permissionsex.util.NodeTree;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PermissionValueCacheTest {
+    private final NodeTree tree = NodeTree.of(ImmutableMap.of("generate.rainbow", 1, "generate.sunset", -1)).compile();
+
+    @Test
+    public void testMemoizedValues() {
+        final PermissionValueCache cache = new PermissionValueCache(16);
+        assertEquals(1, cache.get("generate.rainbow", tree));
+        assertEquals(1, cache.get("generate.rainbow", tree));
+        assertEquals(-1, cache.get("generate.sunset.red", tree));
+        assertEquals(0, cache.get("something.else", tree));
+
+        assertEquals(1, cache.getStats().hitCount());
+        assertEquals(3, cache.getStats().missCount());
+    }
+
+    @Test
+    public void testCollisionsReplaceEntries() {
+        final PermissionValueCache cache = new PermissionValueCache(1);
+        assertEquals(1, cache.get("generate.rainbow", tree));
+        assertEquals(-1, cache.get("generate.sunset", tree));
+        assertEquals(1, cache.get("generate.rainbow", tree));
+
+        assertEquals(0, cache.getStats().hitCount());
+        assertEquals(2, cache.getStats().evictionCount());
+    }
+
+    @Test
+    public void testHitsCountedAcrossThreads() throws InterruptedException {
+        final PermissionValueCache cache = new PermissionValueCache(16);
+        cache.get("generate.rainbow", tree);
+        final Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 1000; ++j) {
+                        cache.get("generate.rainbow", tree);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8000, cache.getStats().hitCount());
+        assertEquals(1, cache.getStats().missCount());
+    }
+
+    @Test
+    public void testApproximateSizeCoversEverySlot() {
+        final long small = new PermissionValueCache(16).getApproximateSize(), large = new PermissionValueCache(PermissionValueCache.DEFAULT_SIZE).getApproximateSize();
+        assertTrue(large > small);
+        assertTrue(large >= PermissionValueCache.DEFAULT_SIZE * 24L);
+    }
+}
@@ -0,0 +1,145 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ImmutableSet;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SubjectDataBakerTest extends PermissionsExTest {
+    private static final Set<Map.Entry<String, String>> GLOBAL = ImmutableSet.of();
+
+    @Override
+    protected void populate(ConfigurationNode node) {
+        node.getNode("default-backend").setValue("test");
+        node.getNode("backends", "test", "type").setValue("memory");
+    }
+
+    @Test
+    public void testSharedParentInheritance() throws Exception {
+        final PermissionsEx pex = getManager();
+        final SubjectCache groups = pex.getSubjects("group"), users = pex.getSubjects("user");
+        groups.update("shared", groups.getData("shared", null).setPermission(GLOBAL, "test.shared", 1)).get();
+        users.update("first", users.getData("first", null).addParent(GLOBAL, "group", "shared")).get();
+        users.update("second", users.getData("second", null).addParent(GLOBAL, "group", "shared")
+                .setPermission(GLOBAL, "test.shared", -2)).get();
+
+        final CalculatedSubject shared = pex.getCalculatedSubject("group", "shared");
+        assertEquals(1, pex.getCalculatedSubject("user", "first").getPermission(GLOBAL, "test.shared"));
+        final SubjectDataBaker.Inheritance sharedInheritance = shared.getCachedInheritance(GLOBAL);
+        assertNotNull(sharedInheritance);
+        assertEquals(-2, pex.getCalculatedSubject("user", "second").getPermission(GLOBAL, "test.shared"));
+        assertSame(sharedInheritance, shared.getCachedInheritance(GLOBAL));
+
+        groups.update("shared", groups.getData("shared", null).setPermission(GLOBAL, "test.shared", 3)).get();
+        assertNull(shared.getCachedInheritance(GLOBAL));
+        assertEquals(3, pex.getCalculatedSubject("user", "first").getPermission(GLOBAL, "test.shared"));
+        assertEquals(3, pex.getCalculatedSubject("user", "second").getPermission(GLOBAL, "test.shared"));
+    }
+
+    @Test
+    public void testGlobsExpanded() throws Exception {
+        final PermissionsEx pex = getManager();
+        final SubjectCache users = pex.getSubjects("user");
+        users.update("globbed", users.getData("globbed", null)
+                .setPermission(GLOBAL, "worldedit.navigation.{jumpto,thru}.{tool,command}", 1)
+                .setPermission(GLOBAL, "worldedit.*.wand", -1)).get();
+
+        final CalculatedSubject subject = pex.getCalculatedSubject("user", "globbed");
+        assertEquals(1, subject.getPermission(GLOBAL, "worldedit.navigation.thru.tool"));
+        assertEquals(1, subject.getPermission(GLOBAL, "worldedit.navigation.jumpto.command"));
+        assertEquals(0, subject.getPermission(GLOBAL, "worldedit.navigation.jumpto"));
+        assertEquals(-1, subject.getPermission(GLOBAL, "worldedit.selection.wand"));
+    }
+
+    @Test
+    public void testIdenticalDataShared() throws Exception {
+        final PermissionsEx pex = getManager();
+        final SubjectCache groups = pex.getSubjects("group"), users = pex.getSubjects("user");
+        groups.update("rank", groups.getData("rank", null).setPermission(GLOBAL, "test.rank", 1)).get();
+        for (String user : new String[] {"first", "second", "third"}) {
+            users.update(user, users.getData(user, null).addParent(GLOBAL, "group", "rank")).get();
+        }
+        users.update("third", users.getData("third", null).setPermission(GLOBAL, "test.personal", 1)).get();
+
+        final CalculatedSubject first = pex.getCalculatedSubject("user", "first"),
+                second = pex.getCalculatedSubject("user", "second"),
+                third = pex.getCalculatedSubject("user", "third");
+        assertSame(first.getPermissions(GLOBAL), second.getPermissions(GLOBAL));
+        assertNotSame(first.getPermissions(GLOBAL), third.getPermissions(GLOBAL));
+        assertEquals(1, third.getPermission(GLOBAL, "test.personal"));
+        assertEquals(0, second.getPermission(GLOBAL, "test.personal"));
+    }
+
+    @Test
+    public void testMetricsRecorded() throws Exception {
+        final PermissionsEx pex = getManager();
+        final SubjectCache groups = pex.getSubjects("group");
+        groups.update("first", groups.getData("first", null).addParent(GLOBAL, "group", "second")).get();
+        groups.update("second", groups.getData("second", null).addParent(GLOBAL, "group", "first")).get();
+
+        final BakeMetrics metrics = pex.getBakeMetrics();
+        final long bakesBefore = metrics.getBakeCount(), circularBefore = metrics.getCircularInheritanceCount();
+        pex.getCalculatedSubject("group", "first").getPermission(GLOBAL, "test.permission");
+        assertTrue(metrics.getBakeCount() > bakesBefore);
+        assertTrue(metrics.getCircularInheritanceCount() > circularBefore);
+        assertTrue(metrics.getVisitedSubjectCount() >= 2);
+        long histogramTotal = 0;
+        for (long count : metrics.getHistogram()) {
+            histogramTotal += count;
+        }
+        assertEquals(metrics.getBakeCount(), histogramTotal);
+    }
+
+    @Test
+    public void testExplain() throws Exception {
+        final PermissionsEx pex = getManager();
+        final SubjectCache groups = pex.getSubjects("group"), users = pex.getSubjects("user"),
+                transientUsers = pex.getTransientSubjects("user");
+        groups.update("rank", groups.getData("rank", null).setPermission(GLOBAL, "worldedit", 1)
+                .setPermission(GLOBAL, "worldedit.*.wand", -1)).get();
+        users.update("explained", users.getData("explained", null).addParent(GLOBAL, "group", "rank")).get();
+        transientUsers.update("explained", transientUsers.getData("explained", null)
+                .setPermission(GLOBAL, "worldedit.{selection,navigation}.wand", 2)).get();
+
+        final CalculatedSubject subject = pex.getCalculatedSubject("user", "explained");
+        final PermissionExplanation explanation = subject.explainPermission(GLOBAL, "worldedit.selection.wand");
+        assertEquals(2, explanation.getValue());
+        assertEquals(3, explanation.getMatches().size());
+        assertEquals("worldedit", explanation.getMatches().get(0).getNode());
+        assertEquals("worldedit.*.wand", explanation.getMatches().get(1).getNode());
+        final PermissionExplanation.Source winner = explanation.getWinner();
+        assertNotNull(winner);
+        assertEquals("worldedit.selection.wand", winner.getNode());
+        assertEquals("worldedit.{selection,navigation}.wand", winner.getDefinition());
+        assertEquals(subject.getIdentifier(), winner.getSubject());
+        assertTrue(winner.isTransient());
+
+        final PermissionExplanation inherited = subject.explainPermission(GLOBAL, "worldedit.history.wand");
+        assertEquals(-1, inherited.getValue());
+        assertEquals("worldedit.*.wand", inherited.getWinner().getNode());
+        assertFalse(inherited.getWinner().isTransient());
+        assertEquals(subject.getPermission(GLOBAL, "worldedit.history.wand"), inherited.getValue());
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import ninja.leaping.configurate.ConfigurationNode;
+import ninja.leaping.permissionsex.PermissionsEx;
+import ninja.leaping.permissionsex.PermissionsExTest;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class SubjectWarmerTest extends PermissionsExTest {
+    private static final Set<Map.Entry<String, String>> GLOBAL = ImmutableSet.of();
+
+    @Override
+    protected void populate(ConfigurationNode node) {
+        node.getNode("default-backend").setValue("test");
+        node.getNode("backends", "test", "type").setValue("memory");
+        node.getNode("warm-up-threads").setValue(4);
+    }
+
+    @Test
+    public void testWarmUp() throws Exception {
+        final PermissionsEx pex = getManager();
+        final SubjectCache groups = pex.getSubjects("group"), users = pex.getSubjects("user");
+        groups.update("member", groups.getData("member", null).setPermission(GLOBAL, "test.member", 1)).get();
+        groups.update("admin", groups.getData("admin", null).addParent(GLOBAL, "group", "member")).get();
+
+        final Set<Map.Entry<String, String>> world = ImmutableSet.of(Maps.immutableEntry("world", "nether"));
+        final Map<Map.Entry<String, String>, Set<Map.Entry<String, String>>> subjects = new HashMap<>();
+        for (int i = 0; i < 200; ++i) {
+            final String identifier = "user" + i;
+            users.update(identifier, users.getData(identifier, null).addParent(GLOBAL, "group", i % 2 == 0 ? "member" : "admin")).get();
+            subjects.put(Maps.immutableEntry("user", identifier), world);
+        }
+
+        final SubjectWarmer.Result result = new SubjectWarmer(pex, 4).warmUp("users", subjects);
+        assertEquals(200, result.getTotal());
+        assertTrue(result.getFailures().isEmpty());
+        for (Map.Entry<String, String> subject : subjects.keySet()) {
+            final CalculatedSubject calculated = pex.getCalculatedSubject(subject.getKey(), subject.getValue());
+            assertNotNull(calculated.getCachedInheritance(world));
+            assertEquals(1, calculated.getPermission(world, "test.member"));
+        }
+    }
+
+    @Test
+    public void testWarmUpGroups() throws Exception {
+        final PermissionsEx pex = getManager();
+        final SubjectCache groups = pex.getSubjects("group");
+        groups.update("member", groups.getData("member", null).setPermission(GLOBAL, "test.member", 1)).get();
+        groups.update("admin", groups.getData("admin", null).addParent(GLOBAL, "group", "member")).get();
+
+        final SubjectWarmer.Result result = new SubjectWarmer(pex, 2).warmUpGroups();
+        assertEquals(2, result.getTotal());
+        assertTrue(result.getFailures().isEmpty());
+        assertNotNull(pex.getCalculatedSubject("group", "admin").getCachedInheritance(GLOBAL));
+    }
+
+    @Test
+    public void testWarmUpGroupsInContexts() throws Exception {
+        final PermissionsEx pex = getManager();
+        final SubjectCache groups = pex.getSubjects("group");
+        final Set<Map.Entry<String, String>> world = ImmutableSet.of(Maps.immutableEntry("world", "nether")),
+                online = ImmutableSet.of(Maps.immutableEntry("world", "end"));
+        groups.update("member", groups.getData("member", null).setPermission(world, "test.member", 1)).get();
+        groups.update("admin", groups.getData("admin", null).addParent(GLOBAL, "group", "member")).get();
+
+        final SubjectWarmer.Result result = new SubjectWarmer(pex, 2).warmUpGroups(ImmutableSet.of(online));
+        assertEquals(2, result.getTotal());
+        assertTrue(result.getFailures().isEmpty());
+        final CalculatedSubject admin = pex.getCalculatedSubject("group", "admin");
+        assertNotNull(admin.getCachedInheritance(GLOBAL));
+        assertNotNull(admin.getCachedInheritance(world));
+        assertNotNull(admin.getCachedInheritance(online));
+    }
+}
@@ -0,0 +1,66 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.data;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TraceBufferTest {
+    private static final Map.Entry<String, String> FIRST = Maps.immutableEntry("user", "first"),
+            SECOND = Maps.immutableEntry("user", "second");
+
+    @Test
+    public void testOldestOverwritten() {
+        final TraceBuffer buffer = new TraceBuffer(4);
+        for (int i = 0; i < 6; ++i) {
+            buffer.record(TraceBuffer.Kind.PERMISSION, FIRST, ImmutableSet.of(), "test.node" + i, i);
+        }
+        final List<TraceBuffer.Event> events = buffer.getRecent(10);
+        assertEquals(4, events.size());
+        assertEquals("test.node2", events.get(0).getNode());
+        assertEquals("test.node5", events.get(3).getNode());
+        assertEquals(2, buffer.getRecent(2).size());
+        assertEquals("test.node4", buffer.getRecent(2).get(0).getNode());
+
+        buffer.clear();
+        assertTrue(buffer.getRecent(10).isEmpty());
+    }
+
+    @Test
+    public void testFilters() {
+        final TraceBuffer buffer = new TraceBuffer(16);
+        buffer.setSubjectFilter(FIRST);
+        buffer.setNodeFilter("test.kits");
+        buffer.record(TraceBuffer.Kind.PERMISSION, FIRST, ImmutableSet.of(), "Test.Kits.starter", 1);
+        buffer.record(TraceBuffer.Kind.PERMISSION, SECOND, ImmutableSet.of(), "test.kits.starter", 1);
+        buffer.record(TraceBuffer.Kind.PERMISSION, FIRST, ImmutableSet.of(), "test.other", 1);
+        buffer.record(TraceBuffer.Kind.PARENTS, FIRST, ImmutableSet.of(), null, null);
+        assertEquals(1, buffer.getRecent(16).size());
+
+        buffer.setSubjectFilter(null);
+        buffer.setNodeFilter(null);
+        buffer.record(TraceBuffer.Kind.PARENTS, SECOND, ImmutableSet.of(), null, null);
+        assertEquals(2, buffer.getRecent(16).size());
+    }
+}
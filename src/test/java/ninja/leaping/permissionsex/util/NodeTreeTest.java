@@ -16,12 +16,19 @@
  */
 package ninja.leaping.permissionsex.util;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 import org.junit.Test;
 import org.spongepowered.api.util.Tristate;
 
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class NodeTreeTest {
@@ -75,7 +82,7 @@ public class NodeTreeTest {
         assertEquals(1, newTree.get("generate.sunset.red"));
 
         assertEquals(-1, oldTree.get("generate.thunderstorm.explosive"));
-        assertEquals(0, newTree.get("generate.thunderstorm.explosive"));
+        assertEquals(1, newTree.get("generate.thunderstorm.explosive")); // Falls back to generate
 
         assertEquals(0, oldTree.get("something.new"));
         assertEquals(-1, newTree.get("something.new"));
@@ -99,4 +106,224 @@ public class NodeTreeTest {
         assertEquals(-1, nodes.get("generate.thunderstorm.explosive"));
         assertEquals(0, nodes.get("random.perm"));
     }
+
+    @Test
+    public void testCompiledMatchesUncompiled() throws Exception {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate.sunset", -1);
+        testPermissions.put("generate", 1);
+        testPermissions.put("generate.thunderstorm.explosive", -1);
+        testPermissions.put("generate.thunderstorm.explosive.very", 2);
+        testPermissions.put("generate.rainbow.dark", 0);
+
+        NodeTree nodes = NodeTree.of(testPermissions, -1);
+        NodeTree compiled = nodes.compile();
+        assertTrue(compiled.isCompiled());
+        assertSame(compiled, compiled.compile());
+
+        final String[] queries = {"generate", "generate.rainbow", "GENERATE.Rainbow", "generate.rainbow.double",
+                "generate.sunset.east", "generate.thunderstorm", "generate.thunderstorm.explosive.very",
+                "generate.thunderstorm.explosive.very.much", "random.perm", "", ".", "...", "generate.",
+                "generate..rainbow", ".generate", "generat", "generatee.rainbow"};
+        for (String query : queries) {
+            assertEquals("Lookup of '" + query + "'", nodes.get(query), compiled.get(query));
+        }
+        assertEquals(nodes.asMap(), compiled.asMap());
+    }
+
+    @Test
+    public void testCompiledWithValue() throws Exception {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate.sunset", -1);
+
+        NodeTree compiled = NodeTree.of(testPermissions).compile();
+        NodeTree newTree = compiled.withValue("generate.sunset", 1);
+        assertFalse(newTree.isCompiled());
+        assertEquals(-1, compiled.get("generate.sunset"));
+        assertEquals(1, newTree.get("generate.sunset"));
+        assertEquals(1, newTree.get("generate.rainbow"));
+    }
+
+    @Test
+    public void testApproximateSize() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generate.rainbow", 1);
+        testPermissions.put("generate.sunset", -1);
+
+        NodeTree tree = NodeTree.of(testPermissions);
+        NodeTree larger = tree.withValue("generate.thunderstorm.explosive", 1);
+        assertTrue(tree.getApproximateSize() > 0);
+        assertTrue(larger.getApproximateSize() > tree.getApproximateSize());
+        assertTrue(larger.compile().getApproximateSize() > tree.compile().getApproximateSize());
+        assertTrue(tree.compile().getApproximateSize() < tree.getApproximateSize());
+    }
+
+    @Test
+    public void testWildcards() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("worldedit.*.tool", 1);
+        testPermissions.put("worldedit.navigation.tool", -1);
+        testPermissions.put("worldedit.navigation", 1);
+        testPermissions.put("worldedit.navigation.*", 2);
+        testPermissions.put("worldedit.*.command.*", -1);
+
+        for (NodeTree tree : new NodeTree[] {NodeTree.of(testPermissions), NodeTree.of(testPermissions).compile()}) {
+            assertEquals(1, tree.get("worldedit.selection.tool"));
+            assertEquals(1, tree.get("worldedit.selection.tool.child"));
+            assertEquals(0, tree.get("worldedit.selection"));
+            assertEquals(-1, tree.get("worldedit.navigation.tool")); // Exact match takes precedence
+            assertEquals(2, tree.get("worldedit.navigation.command.thru")); // A deeper value only applies if its magnitude is at least as large
+            assertEquals(2, tree.get("worldedit.navigation.jumpto"));
+            assertEquals(-1, tree.get("worldedit.selection.command.wand"));
+            assertEquals(testPermissions, tree.asMap());
+        }
+    }
+
+    @Test
+    public void testWildcardsOfEqualMagnitude() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("plots.*", 1);
+        testPermissions.put("plots.*.admin", -1);
+        testPermissions.put("plots.claim", -1);
+
+        for (NodeTree tree : new NodeTree[] {NodeTree.of(testPermissions), NodeTree.of(testPermissions).compile()}) {
+            assertEquals(-1, tree.get("plots.merge.admin")); // With equal magnitudes, the deeper value applies
+            assertEquals(-1, tree.get("plots.claim")); // At the same depth, the exact match applies
+            assertEquals(-1, tree.get("plots.claim.admin"));
+            assertEquals(1, tree.get("plots.merge.user"));
+            assertArrayEquals(new int[] {-1, -1, 1}, tree.getAll(Arrays.asList("plots.merge.admin", "plots.claim", "plots.merge.user")));
+        }
+    }
+
+    @Test
+    public void testCompiledWildcardsWithValue() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("worldedit.*.tool", 1);
+        testPermissions.put("worldedit.selection", 1);
+
+        NodeTree newTree = NodeTree.of(testPermissions).compile().withValue("worldedit.navigation.tool", -1);
+        assertEquals(-1, newTree.get("worldedit.navigation.tool"));
+        assertEquals(1, newTree.get("worldedit.selection.tool"));
+        assertEquals(3, newTree.asMap().size());
+    }
+
+    @Test
+    public void testGetAll() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generic.test", 1);
+        testPermissions.put("generic.test.opposite", -1);
+        testPermissions.put("generic", 1);
+        testPermissions.put("generic.*.other", -3);
+        testPermissions.put("other", 1);
+
+        final List<String> nodes = Arrays.asList("generic.test.opposite", "generic.test", "GENERIC.Test.opposite.deeper",
+                "generic.test", "generic.foo.other", "generic.test.other", "", "other.", "missing.node", "generic");
+        final NodeTree uncompiled = NodeTree.of(testPermissions), compiled = uncompiled.compile();
+        final int[] expected = new int[nodes.size()];
+        for (int i = 0; i < expected.length; ++i) {
+            expected[i] = uncompiled.get(nodes.get(i));
+        }
+        assertArrayEquals(expected, uncompiled.getAll(nodes));
+        assertArrayEquals(expected, compiled.getAll(nodes));
+        assertArrayEquals(new int[] {-1, 1, -1, 1, -3, -3, 0, 1, 0, 1}, compiled.getAll(nodes));
+    }
+
+    @Test
+    public void testEntriesUnder() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("myplugin.kits", 1);
+        testPermissions.put("myplugin.kits.starter", 1);
+        testPermissions.put("myplugin.kits.vip.daily", -1);
+        testPermissions.put("myplugin.other", 1);
+        testPermissions.put("myplugin.kitsune", 1);
+        testPermissions.put("unrelated", 1);
+
+        final Map<String, Integer> expected = new HashMap<>();
+        expected.put("myplugin.kits", 1);
+        expected.put("myplugin.kits.starter", 1);
+        expected.put("myplugin.kits.vip.daily", -1);
+        final NodeTree uncompiled = NodeTree.of(testPermissions);
+        for (NodeTree tree : Arrays.asList(uncompiled, uncompiled.compile())) {
+            final Map<String, Integer> found = new HashMap<>();
+            for (Map.Entry<String, Integer> ent : tree.entriesUnder("MyPlugin.Kits")) {
+                assertNull(found.put(ent.getKey(), ent.getValue()));
+            }
+            assertEquals(expected, found);
+            assertFalse(tree.entriesUnder("myplugin.missing").iterator().hasNext());
+
+            found.clear();
+            for (Map.Entry<String, Integer> ent : tree.entriesUnder("")) {
+                found.put(ent.getKey(), ent.getValue());
+            }
+            assertEquals(tree.asMap(), found);
+        }
+    }
+
+    @Test
+    public void testWithValueKeepsParentValues() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generic", 1);
+        testPermissions.put("generic.test", -1);
+
+        for (NodeTree tree : Arrays.asList(NodeTree.of(testPermissions), NodeTree.of(testPermissions).compile())) {
+            final NodeTree newTree = tree.withValue("generic.test.deeper", 1);
+            assertEquals(1, newTree.get("generic"));
+            assertEquals(-1, newTree.get("generic.test"));
+            assertEquals(1, newTree.get("generic.test.deeper"));
+            assertEquals(3, newTree.asMap().size());
+        }
+    }
+
+    @Test
+    public void testBuilder() {
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("generic.test", 1);
+        testPermissions.put("other.test", 1);
+        final NodeTree oldTree = NodeTree.of(testPermissions);
+
+        final NodeTree.Builder builder = oldTree.toBuilder()
+                .set("generic.test", -1)
+                .set("generic.test.deeper", 1)
+                .setDefaultValue(-1);
+        final NodeTree built = builder.build();
+        builder.set("generic.test", 1).set("another", 1);
+        final NodeTree builtAgain = builder.build();
+
+        assertEquals(1, oldTree.get("generic.test"));
+        assertEquals(0, oldTree.get("unknown"));
+        assertEquals(2, oldTree.asMap().size());
+
+        assertEquals(-1, built.get("generic.test"));
+        assertEquals(1, built.get("generic.test.deeper"));
+        assertEquals(1, built.get("other.test"));
+        assertEquals(-1, built.get("unknown"));
+        assertEquals(3, built.asMap().size());
+
+        assertEquals(1, builtAgain.get("generic.test"));
+        assertEquals(1, builtAgain.get("another"));
+        assertEquals(4, builtAgain.asMap().size());
+    }
+
+    @Test
+    public void testCompiledDefaultValue() {
+        final NodeTree empty = NodeTree.of(new HashMap<String, Integer>(), -1).compile();
+        assertEquals(-1, empty.get("anything"));
+        assertEquals(-1, empty.get(""));
+        assertTrue(empty.asMap().isEmpty());
+
+        final Map<String, Integer> testPermissions = new HashMap<>();
+        testPermissions.put("leaf", 1);
+        testPermissions.put("single.child.chain", 2);
+        final NodeTree tree = NodeTree.of(testPermissions, -1).compile();
+        assertEquals(1, tree.get("leaf.below"));
+        assertEquals(-1, tree.get("single.child"));
+        assertEquals(2, tree.get("single.child.chain.below"));
+        assertEquals(testPermissions, tree.asMap());
+
+        final NodeTree modified = tree.withValue("single", 1);
+        assertEquals(-1, modified.get("other"));
+        assertEquals(1, modified.get("single.child"));
+    }
 }
@@ -0,0 +1,60 @@
+/**
+ * PermissionsEx
+ * Copyright (C) zml and PermissionsEx contributors
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ninja.leaping.permissionsex.util;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.base.Strings;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class ShellGlobParserTest {
+
+    @Test
+    public void testNoGlobs() {
+        assertEquals(ImmutableList.of("worldedit.navigation.jumpto"), ShellGlobParser.parseFrom("worldedit.navigation.jumpto"));
+    }
+
+    @Test
+    public void testAlternatives() {
+        assertEquals(ImmutableList.of("worldedit.navigation.jumpto.tool", "worldedit.navigation.jumpto.command",
+                "worldedit.navigation.thru.tool", "worldedit.navigation.thru.command"),
+                ShellGlobParser.parseFrom("worldedit.navigation.{jumpto,thru}.{tool,command}"));
+    }
+
+    @Test
+    public void testNestedAlternatives() {
+        assertEquals(ImmutableList.of("a.b.f", "a.cd.f", "a.ce.f", "a..f"), ShellGlobParser.parseFrom("a.{b,c{d,e},}.f"));
+    }
+
+    @Test
+    public void testLiteralBraces() {
+        assertEquals(ImmutableList.of("a.{b}.c"), ShellGlobParser.parseFrom("a.{b}.c"));
+        assertEquals(ImmutableList.of("a.{b.c", "a.{b.d"), ShellGlobParser.parseFrom("a.{b.{c,d}"));
+        assertEquals(ImmutableList.of("a.{b,c"), ShellGlobParser.parseFrom("a.{b,c"));
+    }
+
+    @Test
+    public void testExpansionLimit() {
+        assertEquals(1024, ShellGlobParser.parseFrom(Strings.repeat("{a,b}", 10)).size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testExpansionLimitExceeded() {
+        ShellGlobParser.parseFrom(Strings.repeat("{a,b}", 11));
+    }
+}